@@ -23,6 +23,7 @@
  */
 package cubicchunks.converter.lib.conf;
 
+import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,19 +46,19 @@ public class ConverterConfig {
     }
 
     public double getDouble(String location) {
-        return ((Number) getValue(location)).doubleValue();
+        return toNumber(getValue(location)).doubleValue();
     }
 
     public float getFloat(String location) {
-        return ((Number) getValue(location)).floatValue();
+        return toNumber(getValue(location)).floatValue();
     }
 
     public int getInt(String location) {
-        return ((Number) getValue(location)).intValue();
+        return toNumber(getValue(location)).intValue();
     }
 
     public long getLong(String location) {
-        return ((Number) getValue(location)).longValue();
+        return toNumber(getValue(location)).longValue();
     }
 
     public boolean getBool(String location) {
@@ -65,6 +66,9 @@ public class ConverterConfig {
         if (value instanceof Number) {
             return ((Number) value).longValue() != 0L;
         }
+        if (value instanceof String) {
+            return Boolean.parseBoolean((String) value);
+        }
         return ((Boolean) getValue(location));
     }
 
@@ -86,4 +90,12 @@ public class ConverterConfig {
     public Map<String, Object> getOverrides() {
         return new HashMap<>(overrides);
     }
+
+    // values set from command line or text fields are strings
+    private static Number toNumber(Object value) {
+        if (value instanceof String) {
+            return new BigDecimal(((String) value).trim());
+        }
+        return (Number) value;
+    }
 }
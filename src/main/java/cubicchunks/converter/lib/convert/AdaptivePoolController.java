@@ -0,0 +1,184 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically resizes the thread pools of the conversion pipeline.
+ *
+ * A stage gets more threads while its queue stays mostly full and the stage after it can still accept work,
+ * and loses threads while its queue stays mostly empty. If adding threads didn't increase throughput
+ * (for example because the disk is already saturated), the change is reverted and the stage is left alone for a while.
+ */
+class AdaptivePoolController {
+
+    private static final double HIGH_OCCUPANCY = 0.75;
+    private static final double LOW_OCCUPANCY = 0.10;
+    private static final double DOWNSTREAM_FULL = 0.90;
+    // required throughput improvement to keep the threads added in the last step
+    private static final double MIN_GAIN = 1.05;
+    private static final int COOLDOWN_TICKS = 5;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final long intervalMillis;
+    private ScheduledExecutorService scheduler;
+
+    AdaptivePoolController(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    Stage addStage(String name, ThreadPoolExecutor pool, BlockingQueue<?> queue, StageStats stats, int minThreads, int maxThreads, Stage downstream) {
+        Stage stage = new Stage(name, pool, queue, stats, minThreads, maxThreads, downstream);
+        stages.add(stage);
+        return stage;
+    }
+
+    void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Adaptive thread pool controller");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void tick() {
+        for (Stage stage : stages) {
+            try {
+                stage.update();
+            } catch (RuntimeException e) {
+                // resizing is best effort, never kill the scheduler because of it
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static class Stage {
+        private final String name;
+        private final ThreadPoolExecutor pool;
+        private final BlockingQueue<?> queue;
+        private final StageStats stats;
+        private final int minThreads;
+        private final int maxThreads;
+        private final Stage downstream;
+
+        private long lastNanos = System.nanoTime();
+        private long lastCompleted;
+        private long lastBusyNanos;
+        private double lastThroughput;
+        private double lastLatencyNanos;
+        private double throughputBeforeGrow = -1;
+        private int threadsBeforeGrow;
+        private int cooldown;
+
+        private Stage(String name, ThreadPoolExecutor pool, BlockingQueue<?> queue, StageStats stats, int minThreads, int maxThreads,
+            Stage downstream) {
+            this.name = name;
+            this.pool = pool;
+            this.queue = queue;
+            this.stats = stats;
+            this.minThreads = minThreads;
+            this.maxThreads = maxThreads;
+            this.downstream = downstream;
+        }
+
+        double occupancy() {
+            int size = queue.size();
+            int capacity = size + queue.remainingCapacity();
+            return capacity == 0 ? 0 : size / (double) capacity;
+        }
+
+        private void update() {
+            if (pool.isShutdown()) {
+                return;
+            }
+            long now = System.nanoTime();
+            long completed = stats.getCompleted();
+            long busyNanos = stats.getBusyNanos();
+            double seconds = (now - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            double throughput = seconds <= 0 ? lastThroughput : (completed - lastCompleted) / seconds;
+            if (completed != lastCompleted) {
+                lastLatencyNanos = (busyNanos - lastBusyNanos) / (double) (completed - lastCompleted);
+            }
+            lastNanos = now;
+            lastCompleted = completed;
+            lastBusyNanos = busyNanos;
+            lastThroughput = throughput;
+
+            int threads = pool.getMaximumPoolSize();
+            if (throughputBeforeGrow >= 0) {
+                // judge the previous step
+                if (throughput < throughputBeforeGrow * MIN_GAIN) {
+                    resize(threadsBeforeGrow, "no throughput gain");
+                    cooldown = COOLDOWN_TICKS;
+                }
+                throughputBeforeGrow = -1;
+                return;
+            }
+            if (cooldown > 0) {
+                cooldown--;
+                return;
+            }
+            double occupancy = occupancy();
+            boolean blockedByDownstream = downstream != null && downstream.occupancy() > DOWNSTREAM_FULL;
+            if (occupancy > HIGH_OCCUPANCY && !blockedByDownstream && threads < maxThreads) {
+                throughputBeforeGrow = throughput;
+                threadsBeforeGrow = threads;
+                resize(Math.min(maxThreads, threads + Math.max(1, threads / 4)), "queue filling up");
+            } else if (occupancy < LOW_OCCUPANCY && pool.getActiveCount() < threads / 2 && threads > minThreads) {
+                resize(threads - 1, "queue mostly empty");
+            }
+        }
+
+        private void resize(int threads, String reason) {
+            int current = pool.getMaximumPoolSize();
+            if (threads == current) {
+                return;
+            }
+            // core size can never be above max size, so the order depends on direction
+            if (threads > current) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            } else {
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+            System.out.println(String.format("Resized %s threads %d -> %d (%s, %.1f tasks/s, %.2fms per task)",
+                name, current, threads, reason, lastThroughput, lastLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+    }
+}
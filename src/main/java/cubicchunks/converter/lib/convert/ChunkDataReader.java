@@ -23,7 +23,12 @@
  */
 package cubicchunks.converter.lib.convert;
 
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.io.RegionCache;
+
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -33,22 +38,63 @@ public interface ChunkDataReader<T> extends AutoCloseable {
 
     /**
      * Counts chunks in the input world. This is expected to run in the background.
+     * It must always be called, some readers build their chunk list while counting, and
+     * {@link #loadChunks(Consumer)} and {@link #splitLoading()} wait until counting has finished.
      *
      * @param increment Runnable to run when a new chunk is detected,
      * to increment the internal counter and update progress report
      */
     void countInputChunks(Runnable increment) throws IOException, InterruptedException;
 
+    /**
+     * Sets statistics object that will be filled while counting input chunks, for readers that can do it cheaply.
+     * Must be called before {@link #countInputChunks(Runnable)}.
+     */
+    default void setSourceStats(SourceStats stats) {
+    }
+
     /**
      * Loads chunks into memory, and gives them to the provided consumer.
      * The provided consumer will block if data is provided too fast.
      */
     void loadChunks(Consumer<? super T> accept) throws IOException, InterruptedException;
 
+    /**
+     * Splits loading chunks into independent parts, usually one per region file, that can be loaded
+     * concurrently from different threads. Together they load the same chunks as {@link #loadChunks(Consumer)}.
+     * Readers that can't do that return an empty list, and can only be loaded using {@link #loadChunks(Consumer)}.
+     */
+    default List<LoadTask<T>> splitLoading() throws IOException, InterruptedException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Sets the cache for open region handles, for implementations that keep regions open.
+     * Must be called before any chunks are read or written.
+     */
+    default void setRegionCache(RegionCache cache) {
+    }
+
+    /**
+     * Reader specific options, overrides of the world converter config for the same keys are applied to it.
+     * Returns null if the reader has no options.
+     */
+    default ConverterConfig getConfig() {
+        return null;
+    }
+
     /**
      * Indicates that reading chunks should be stopped and
      * {@link #loadChunks(Consumer)} method should return.
      * Can be called from any thread.
      */
     void stop();
+
+    interface LoadTask<T> {
+
+        /**
+         * Loads all chunks of this part of the input and gives them to the provided consumer, on the calling thread.
+         */
+        void load(Consumer<? super T> accept) throws IOException;
+    }
 }
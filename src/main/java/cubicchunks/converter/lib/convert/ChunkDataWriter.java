@@ -23,7 +23,10 @@
  */
 package cubicchunks.converter.lib.convert;
 
+import cubicchunks.converter.lib.convert.io.RegionCache;
+
 import java.io.IOException;
+import java.util.Collection;
 
 /**
  * Writes chunks to disk, supplied in an in-memory representation specific to
@@ -40,6 +43,31 @@ public interface ChunkDataWriter<T> extends AutoCloseable {
      */
     void accept(T t) throws IOException;
 
+    /**
+     * Writes all of the given chunks. Implementations may group them by destination region
+     * and write each group at once. Like {@link #accept(T)}, this is called from multiple threads.
+     */
+    default void acceptBatch(Collection<T> batch) throws IOException {
+        for (T t : batch) {
+            accept(t);
+        }
+    }
+
+    /**
+     * Enables reserving space for new region files, sized using statistics of the input world.
+     * The statistics may still be incomplete when the first regions are created.
+     * Writers that don't support it ignore this.
+     */
+    default void setPreallocation(SourceStats stats, PreallocationMode mode) {
+    }
+
+    /**
+     * Sets the cache for open region handles, for implementations that keep regions open.
+     * Must be called before any chunks are read or written.
+     */
+    default void setRegionCache(RegionCache cache) {
+    }
+
     /**
      * Deletes all written data.
      */
@@ -23,6 +23,8 @@
  */
 package cubicchunks.converter.lib.convert;
 
+import cubicchunks.converter.lib.conf.ConverterConfig;
+
 import java.io.IOException;
 
 /**
@@ -30,8 +32,23 @@ import java.io.IOException;
  */
 public interface LevelInfoConverter<IN, OUT> {
 
+    /**
+     * Called before chunk conversion, may start work that doesn't depend on converted chunks in the background.
+     * {@link #convert()} has to wait for that work to finish.
+     */
+    default void start() throws IOException {
+    }
+
     /**
      * Converts world metadata and copies unmodified non-chunk files.
      */
     void convert() throws IOException;
+
+    /**
+     * Level converter specific options, overrides of the world converter config for the same keys are applied to it.
+     * Returns null if the converter has no options.
+     */
+    default ConverterConfig getConfig() {
+        return null;
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size statistics of the input world, collected by the reader while counting input chunks.
+ * Writers use them to estimate how large output region files will get.
+ */
+public class SourceStats {
+
+    private final LongAdder regions = new LongAdder();
+    private final LongAdder capacity = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile boolean complete;
+
+    /**
+     * Adds one input region file.
+     *
+     * @param regionCapacity how many entries the region can hold
+     * @param regionEntries how many entries the region contains
+     * @param regionBytes total size of all entries of the region
+     */
+    public void addRegion(int regionCapacity, int regionEntries, long regionBytes) {
+        regions.increment();
+        capacity.add(regionCapacity);
+        entries.add(regionEntries);
+        bytes.add(regionBytes);
+    }
+
+    void markComplete() {
+        complete = true;
+    }
+
+    /**
+     * Returns true when the whole input has been counted. Until then the values only describe part of the input.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getRegions() {
+        return regions.sum();
+    }
+
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    /**
+     * Returns the fraction of entry slots in input regions that are used.
+     */
+    public double getFillRatio() {
+        long cap = capacity.sum();
+        return cap == 0 ? 0 : entries.sum() / (double) cap;
+    }
+
+    public double getAverageEntryBytes() {
+        long count = entries.sum();
+        return count == 0 ? 0 : bytes.sum() / (double) count;
+    }
+}
@@ -24,29 +24,67 @@
 package cubicchunks.converter.lib.convert;
 
 import cubicchunks.converter.lib.IProgressListener;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.io.RegionCache;
+import cubicchunks.converter.lib.util.UncheckedInterruptedException;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class WorldConverter<IN, OUT> {
 
     private static final int THREADS = Runtime.getRuntime().availableProcessors();
-    private static final int CONVERT_QUEUE_SIZE = 64 * THREADS;
-    private static final int IO_QUEUE_SIZE = 32 * THREADS;
+
+    public static final String CONVERT_THREADS = "convertThreads";
+    public static final String IO_THREADS = "ioThreads";
+    public static final String CONVERT_QUEUE_SIZE = "convertQueueSize";
+    public static final String IO_QUEUE_SIZE = "ioQueueSize";
+    // adaptive pool sizing, the configured thread counts are used as starting point
+    public static final String ADAPTIVE_THREADS = "adaptiveThreads";
+    public static final String MAX_CONVERT_THREADS = "maxConvertThreads";
+    public static final String MAX_IO_THREADS = "maxIoThreads";
+    public static final String ADAPTIVE_INTERVAL_MILLIS = "adaptiveIntervalMillis";
+    public static final String EXECUTION_MODE = "executionMode";
+    public static final String FORK_JOIN_THREADS = "forkJoinThreads";
+    // pipeline mode only, reads and writes on virtual threads (Java 21+), conversion stays on the convert pool
+    public static final String VIRTUAL_THREAD_IO = "virtualThreadIO";
+    public static final String VIRTUAL_IO_CONCURRENCY = "virtualIoConcurrency";
+    // pipeline mode only, converted chunks are written in batches of this size, 1 disables batching
+    public static final String IO_BATCH_SIZE = "ioBatchSize";
+    // see PreallocationMode
+    public static final String PREALLOCATE = "preallocate";
+    // maximum open region files, 0 sizes it from thread count and input region count
+    public static final String REGION_CACHE_SIZE = "regionCacheSize";
+
+    private static final int MIN_REGION_CACHE_SIZE = 64;
+    private static final int REGION_CACHE_PER_THREAD = 8;
+    // one input region usually maps to a few output regions
+    private static final int REGION_CACHE_PER_INPUT_REGION = 8;
 
     private final LevelInfoConverter<IN, OUT> levelConverter;
     private final ChunkDataReader<IN> reader;
     private final ChunkDataConverter<IN, OUT> converter;
     private final ChunkDataWriter<OUT> writer;
+    private final RegionCache regionCache = new RegionCache(RegionCache.DEFAULT_MAX_SIZE);
 
     private final AtomicInteger chunkCount;
-    private int copyChunks;
+    private final SourceStats sourceStats = new SourceStats();
+    private final AtomicInteger copyChunks = new AtomicInteger();
 
     private final ArrayBlockingQueue<Runnable> convertQueueImpl;
     private final ArrayBlockingQueue<Runnable> ioQueueImpl;
@@ -54,8 +92,27 @@ public class WorldConverter<IN, OUT> {
     private final ThreadPoolExecutor convertQueue;
     private final ThreadPoolExecutor ioQueue;
 
+    private final StageStats convertStats = new StageStats();
+    private final StageStats ioStats = new StageStats();
+    private final AdaptivePoolController poolController;
+
+    // both null unless virtual thread IO is enabled, separate limits so that blocked reads can't starve writes
+    private final VirtualThreadExecutor virtualReads;
+    private final VirtualThreadExecutor virtualWrites;
+
+    private final int ioBatchSize;
+    private final Object batchLock = new Object();
+    private List<OUT> pendingBatch;
+
+    private final ExecutionMode executionMode;
+    private final boolean autoRegionCacheSize;
+    private final int regionCacheThreadLimit;
+    private final int forkJoinThreads;
+    private final int forkJoinMaxQueued;
+
     private volatile boolean discardConverted = false;
     private volatile boolean errored = false;
+    private volatile boolean stopRequested = false;
     // handle errors one at a time
     private final Object errorLock = new Object();
 
@@ -64,11 +121,22 @@ public class WorldConverter<IN, OUT> {
         ChunkDataReader<IN> reader,
         ChunkDataConverter<IN, OUT> converter,
         ChunkDataWriter<OUT> writer) {
+        this(levelConverter, reader, converter, writer, createDefaultConfig());
+    }
+
+    public WorldConverter(
+        LevelInfoConverter<IN, OUT> levelConverter,
+        ChunkDataReader<IN> reader,
+        ChunkDataConverter<IN, OUT> converter,
+        ChunkDataWriter<OUT> writer,
+        ConverterConfig config) {
 
         this.levelConverter = levelConverter;
         this.reader = reader;
         this.converter = converter;
         this.writer = writer;
+        reader.setRegionCache(regionCache);
+        writer.setRegionCache(regionCache);
 
         RejectedExecutionHandler handler = ((r, executor) -> {
             try {
@@ -83,13 +151,98 @@ public class WorldConverter<IN, OUT> {
 
         chunkCount = new AtomicInteger(0);
 
-        convertQueueImpl = new ArrayBlockingQueue<>(CONVERT_QUEUE_SIZE);
-        convertQueue = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS, convertQueueImpl);
+        reader.setSourceStats(sourceStats);
+        PreallocationMode preallocation = PreallocationMode.fromString(config.getString(PREALLOCATE));
+        if (preallocation != PreallocationMode.NONE) {
+            writer.setPreallocation(sourceStats, preallocation);
+        }
+        // reader and converter specific options, only the ones they know about
+        forwardOptions(config, reader.getConfig());
+        forwardOptions(config, converter.getConfig());
+        forwardOptions(config, levelConverter.getConfig());
+
+        int convertThreads = config.getInt(CONVERT_THREADS);
+        int ioThreads = config.getInt(IO_THREADS);
+
+        convertQueueImpl = new ArrayBlockingQueue<>(config.getInt(CONVERT_QUEUE_SIZE));
+        convertQueue = new ThreadPoolExecutor(convertThreads, convertThreads, 0L, TimeUnit.MILLISECONDS, convertQueueImpl);
         convertQueue.setRejectedExecutionHandler(handler);
 
-        ioQueueImpl = new ArrayBlockingQueue<>(IO_QUEUE_SIZE);
-        ioQueue = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS, ioQueueImpl);
+        ioQueueImpl = new ArrayBlockingQueue<>(config.getInt(IO_QUEUE_SIZE));
+        ioQueue = new ThreadPoolExecutor(ioThreads, ioThreads, 0L, TimeUnit.MILLISECONDS, ioQueueImpl);
         ioQueue.setRejectedExecutionHandler(handler);
+
+        if (config.getBool(VIRTUAL_THREAD_IO) && !VirtualThreadExecutor.isSupported()) {
+            System.err.println("Virtual thread IO requires Java 21 or newer, using platform IO threads");
+        }
+        if (config.getBool(VIRTUAL_THREAD_IO) && VirtualThreadExecutor.isSupported()) {
+            int concurrency = config.getInt(VIRTUAL_IO_CONCURRENCY);
+            virtualReads = new VirtualThreadExecutor(concurrency);
+            virtualWrites = new VirtualThreadExecutor(concurrency);
+        } else {
+            virtualReads = null;
+            virtualWrites = null;
+        }
+
+        if (config.getBool(ADAPTIVE_THREADS)) {
+            poolController = new AdaptivePoolController(config.getLong(ADAPTIVE_INTERVAL_MILLIS));
+            AdaptivePoolController.Stage io = virtualWrites != null ? null : poolController.addStage("IO", ioQueue, ioQueueImpl, ioStats,
+                1, Math.max(ioThreads, config.getInt(MAX_IO_THREADS)), null);
+            poolController.addStage("convert", convertQueue, convertQueueImpl, convertStats,
+                1, Math.max(convertThreads, config.getInt(MAX_CONVERT_THREADS)), io);
+        } else {
+            poolController = null;
+        }
+
+        ioBatchSize = Math.max(1, config.getInt(IO_BATCH_SIZE));
+        pendingBatch = new ArrayList<>(ioBatchSize);
+
+        executionMode = ExecutionMode.fromString(config.getString(EXECUTION_MODE));
+        forkJoinThreads = config.getInt(FORK_JOIN_THREADS);
+        forkJoinMaxQueued = config.getInt(CONVERT_QUEUE_SIZE);
+
+        int regionCacheSize = config.getInt(REGION_CACHE_SIZE);
+        autoRegionCacheSize = regionCacheSize <= 0;
+        if (autoRegionCacheSize) {
+            int threads = executionMode == ExecutionMode.FORK_JOIN ? forkJoinThreads : convertThreads + ioThreads;
+            regionCacheThreadLimit = Math.max(MIN_REGION_CACHE_SIZE, threads * REGION_CACHE_PER_THREAD);
+            regionCache.setMaxSize(regionCacheThreadLimit);
+        } else {
+            regionCacheThreadLimit = regionCacheSize;
+            regionCache.setMaxSize(regionCacheSize);
+        }
+    }
+
+    private static void forwardOptions(ConverterConfig config, ConverterConfig target) {
+        if (target == null) {
+            return;
+        }
+        Map<String, Object> targetDefaults = target.getDefaults();
+        config.getOverrides().forEach((key, value) -> {
+            if (targetDefaults.containsKey(key)) {
+                target.set(key, value);
+            }
+        });
+    }
+
+    public static ConverterConfig createDefaultConfig() {
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put(CONVERT_THREADS, THREADS);
+        defaults.put(IO_THREADS, THREADS);
+        defaults.put(CONVERT_QUEUE_SIZE, 64 * THREADS);
+        defaults.put(IO_QUEUE_SIZE, 32 * THREADS);
+        defaults.put(ADAPTIVE_THREADS, false);
+        defaults.put(MAX_CONVERT_THREADS, 2 * THREADS);
+        defaults.put(MAX_IO_THREADS, 16 * THREADS);
+        defaults.put(ADAPTIVE_INTERVAL_MILLIS, 2000L);
+        defaults.put(EXECUTION_MODE, ExecutionMode.PIPELINE.name());
+        defaults.put(FORK_JOIN_THREADS, THREADS);
+        defaults.put(VIRTUAL_THREAD_IO, false);
+        defaults.put(VIRTUAL_IO_CONCURRENCY, 1024);
+        defaults.put(IO_BATCH_SIZE, 1);
+        defaults.put(PREALLOCATE, PreallocationMode.NONE.name());
+        defaults.put(REGION_CACHE_SIZE, 0);
+        return new ConverterConfig(defaults);
     }
 
     public void convert(IProgressListener progress) throws IOException {
@@ -98,14 +251,65 @@ public class WorldConverter<IN, OUT> {
         System.out.println("Starting conversion");
 
         long startTime = System.nanoTime();
+        levelConverter.start();
         try {
-            reader.loadChunks(inData -> {
-                convertQueue.submit(new ChunkConvertTask<>(converter, writer, progress, this, ioQueue, inData));
-                copyChunks++;
-            });
-        } catch (InterruptedException e) {
+            if (executionMode == ExecutionMode.FORK_JOIN) {
+                convertForkJoin(progress);
+            } else {
+                convertPipelined(progress);
+            }
+        } finally {
+            try {
+                reader.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            try {
+                writer.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (discardConverted) {
+                try {
+                    writer.discardData();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+        if (!errored) {
+            levelConverter.convert();
+        }
+        double dt = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.println("Conversion time = " + dt);
+        System.out.println(regionCache);
+    }
+
+    private void convertPipelined(IProgressListener progress) throws IOException {
+        if (poolController != null) {
+            poolController.start();
+        }
+        if (virtualWrites != null) {
+            // nothing is submitted to the platform IO pool
+            ioQueue.shutdown();
+        }
+        try {
+            Consumer<IN> submit = inData -> {
+                convertQueue.submit(new ChunkConvertTask<>(converter, progress, this, inData));
+                copyChunks.incrementAndGet();
+            };
+            List<ChunkDataReader.LoadTask<IN>> loadTasks = virtualReads == null ? Collections.emptyList() : reader.splitLoading();
+            if (loadTasks.isEmpty()) {
+                reader.loadChunks(submit);
+            } else {
+                loadVirtual(loadTasks, submit, progress);
+            }
+        } catch (InterruptedException | RejectedExecutionException e) {
             // just shutdown
         } finally {
+            if (virtualReads != null) {
+                virtualReads.shutdown();
+            }
             convertQueue.shutdown();
             boolean shutdownNow = false;
             try {
@@ -115,7 +319,10 @@ public class WorldConverter<IN, OUT> {
                 convertQueue.shutdownNow();
                 shutdownNow = true;
             }
-            // convert finished, now shut down IO
+            // convert finished, write what's left and shut down IO
+            if (!shutdownNow) {
+                flushBatch(progress);
+            }
             if (shutdownNow) {
                 ioQueue.shutdownNow();
             } else {
@@ -128,33 +335,165 @@ public class WorldConverter<IN, OUT> {
                 e.printStackTrace();
                 ioQueue.shutdownNow();
             }
-            try {
-                reader.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (virtualWrites != null) {
+                virtualWrites.shutdown();
+                try {
+                    virtualWrites.awaitTermination(Long.MAX_VALUE / 2, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    virtualWrites.shutdownNow();
+                }
             }
-            try {
-                writer.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (poolController != null) {
+                poolController.stop();
             }
-            if (discardConverted) {
+        }
+    }
+
+    // each region is read by its own virtual thread, region handles are locked while reading so splitting further doesn't help
+    private void loadVirtual(List<ChunkDataReader.LoadTask<IN>> loadTasks, Consumer<IN> submit, IProgressListener progress)
+        throws InterruptedException {
+        for (ChunkDataReader.LoadTask<IN> loadTask : loadTasks) {
+            if (stopRequested) {
+                return;
+            }
+            virtualReads.execute(() -> {
                 try {
-                    writer.discardData();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
+                    loadTask.load(inData -> {
+                        if (stopRequested) {
+                            throw new UncheckedInterruptedException();
+                        }
+                        submit.accept(inData);
+                    });
+                } catch (UncheckedInterruptedException | RejectedExecutionException e) {
+                    // stopped
+                } catch (Throwable t) {
+                    handleError(t, progress);
                 }
+            });
+        }
+        virtualReads.shutdown();
+        virtualReads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private void write(OUT converted, IProgressListener progress) throws InterruptedException {
+        if (ioBatchSize == 1) {
+            submitWrite(new IOWriteTask<>(Collections.singletonList(converted), writer, this, progress));
+            return;
+        }
+        List<OUT> batch = null;
+        synchronized (batchLock) {
+            pendingBatch.add(converted);
+            if (pendingBatch.size() >= ioBatchSize) {
+                batch = pendingBatch;
+                pendingBatch = new ArrayList<>(ioBatchSize);
             }
         }
-        if (!errored) {
-            levelConverter.convert();
+        if (batch != null) {
+            submitWrite(new IOWriteTask<>(batch, writer, this, progress));
+        }
+    }
+
+    private void flushBatch(IProgressListener progress) {
+        List<OUT> batch;
+        synchronized (batchLock) {
+            batch = pendingBatch;
+            pendingBatch = new ArrayList<>(ioBatchSize);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            submitWrite(new IOWriteTask<>(batch, writer, this, progress));
+        } catch (Throwable t) {
+            handleError(t, progress);
+        }
+    }
+
+    private void submitWrite(IOWriteTask<OUT> task) throws InterruptedException {
+        if (virtualWrites != null) {
+            virtualWrites.execute(task::call);
+        } else {
+            ioQueue.submit(task);
+        }
+    }
+
+    private void convertForkJoin(IProgressListener progress) throws IOException {
+        // the pipeline executors are not used, nothing will ever be submitted to them
+        convertQueue.shutdown();
+        ioQueue.shutdown();
+
+        ForkJoinPool pool = new ForkJoinPool(forkJoinThreads);
+        try {
+            List<ChunkDataReader.LoadTask<IN>> loadTasks = reader.splitLoading();
+            if (loadTasks.isEmpty()) {
+                // the reader can only load sequentially, each chunk is still converted and written by one thread
+                Semaphore inFlight = new Semaphore(forkJoinMaxQueued);
+                reader.loadChunks(inData -> {
+                    try {
+                        inFlight.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new UncheckedInterruptedException();
+                    }
+                    pool.execute(() -> {
+                        try {
+                            if (!stopRequested) {
+                                convertAndWrite(inData, progress);
+                            }
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    copyChunks.incrementAndGet();
+                });
+            } else {
+                List<RegionConvertTask<IN, OUT>> tasks = new ArrayList<>(loadTasks.size());
+                for (ChunkDataReader.LoadTask<IN> loadTask : loadTasks) {
+                    tasks.add(new RegionConvertTask<>(this, loadTask, progress));
+                }
+                pool.invoke(new RecursiveAction() {
+                    @Override protected void compute() {
+                        // forks all of them, idle workers steal whole regions from busy ones
+                        invokeAll(tasks);
+                    }
+                });
+            }
+        } catch (InterruptedException | UncheckedInterruptedException e) {
+            // just shutdown
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private void convertAndWrite(IN inData, IProgressListener progress) {
+        OUT converted;
+        try {
+            long start = System.nanoTime();
+            converted = converter.convert(inData);
+            convertStats.record(start);
+            progress.update(null);
+        } catch (Throwable t) {
+            handleError(t, progress);
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            writer.accept(converted);
+            ioStats.record(start);
+        } catch (Throwable t) {
+            handleError(t, progress);
         }
-        double dt = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1);
-        System.out.println("Conversion time = " + dt);
     }
 
     public int getSubmittedChunks() {
-        return copyChunks;
+        return copyChunks.get();
     }
 
     public int getTotalChunks() {
@@ -166,21 +505,56 @@ public class WorldConverter<IN, OUT> {
     }
 
     public int getConvertBufferMaxSize() {
-        return CONVERT_QUEUE_SIZE;
+        return convertQueueImpl.size() + convertQueueImpl.remainingCapacity();
     }
 
     public int getIOBufferFill() {
+        if (virtualWrites != null) {
+            return virtualWrites.getRunning();
+        }
         return ioQueueImpl.size();
     }
 
     public int getIOBufferMaxSize() {
-        return IO_QUEUE_SIZE;
+        if (virtualWrites != null) {
+            return virtualWrites.getMaxConcurrency();
+        }
+        return ioQueueImpl.size() + ioQueueImpl.remainingCapacity();
+    }
+
+    public int getConvertThreads() {
+        return convertQueue.getMaximumPoolSize();
+    }
+
+    public int getIOThreads() {
+        if (virtualWrites != null) {
+            return virtualWrites.getMaxConcurrency();
+        }
+        return ioQueue.getMaximumPoolSize();
+    }
+
+    public StageStats getConvertStats() {
+        return convertStats;
+    }
+
+    public StageStats getIOStats() {
+        return ioStats;
+    }
+
+    public RegionCache getRegionCache() {
+        return regionCache;
     }
 
     private void startCounting() {
         new Thread(() -> {
             try {
                 reader.countInputChunks(chunkCount::getAndIncrement);
+                sourceStats.markComplete();
+                if (autoRegionCacheSize && sourceStats.getRegions() > 0) {
+                    // small worlds don't need as many open files
+                    long forInput = Math.max(MIN_REGION_CACHE_SIZE, sourceStats.getRegions() * REGION_CACHE_PER_INPUT_REGION);
+                    regionCache.setMaxSize((int) Math.min(regionCacheThreadLimit, forInput));
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             } catch (InterruptedException e) {
@@ -200,9 +574,14 @@ public class WorldConverter<IN, OUT> {
                     discardConverted = true;
                     // fallthrough
                 case STOP_KEEP_DATA:
+                    stopRequested = true;
                     reader.stop();
                     convertQueue.shutdownNow();
                     ioQueue.shutdownNow();
+                    if (virtualReads != null) {
+                        virtualReads.shutdownNow();
+                        virtualWrites.shutdownNow();
+                    }
                     // fallthrough
                 case IGNORE_ALL:
                     errored = true;
@@ -210,36 +589,84 @@ public class WorldConverter<IN, OUT> {
         }
     }
 
+    public enum ExecutionMode {
+        /**
+         * Loading, converting and writing are done by separate threads, connected by bounded queues.
+         */
+        PIPELINE,
+        /**
+         * Each worker loads, converts and writes whole regions on its own, idle workers steal regions from busy ones.
+         */
+        FORK_JOIN;
+
+        public static ExecutionMode fromString(String name) {
+            for (ExecutionMode mode : values()) {
+                if (mode.name().replace("_", "").equalsIgnoreCase(name.replace("_", "").replace("-", ""))) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown execution mode " + name);
+        }
+    }
+
+    // fork-join tasks are never serialized
+    @SuppressWarnings("serial")
+    private static class RegionConvertTask<IN, OUT> extends RecursiveAction {
+        private final WorldConverter<IN, OUT> worldConv;
+        private final ChunkDataReader.LoadTask<IN> loadTask;
+        private final IProgressListener progress;
+
+        RegionConvertTask(WorldConverter<IN, OUT> worldConv, ChunkDataReader.LoadTask<IN> loadTask, IProgressListener progress) {
+            this.worldConv = worldConv;
+            this.loadTask = loadTask;
+            this.progress = progress;
+        }
+
+        @Override protected void compute() {
+            if (worldConv.stopRequested) {
+                return;
+            }
+            try {
+                loadTask.load(inData -> {
+                    if (worldConv.stopRequested) {
+                        throw new UncheckedInterruptedException();
+                    }
+                    worldConv.copyChunks.incrementAndGet();
+                    worldConv.convertAndWrite(inData, progress);
+                });
+            } catch (UncheckedInterruptedException e) {
+                // stopped
+            } catch (Throwable t) {
+                worldConv.handleError(t, progress);
+            }
+        }
+    }
+
     private static class ChunkConvertTask<IN, OUT> implements Callable<Void> {
         private final ChunkDataConverter<IN, OUT> converter;
-        private final ChunkDataWriter<OUT> writer;
         private final IProgressListener progress;
         private WorldConverter<IN, OUT> worldConv;
-        private final ThreadPoolExecutor ioExecutor;
         private final IN toConvert;
 
         ChunkConvertTask(
             ChunkDataConverter<IN, OUT> converter,
-            ChunkDataWriter<OUT> writer,
             IProgressListener progress,
             WorldConverter<IN, OUT> worldConv,
-            ThreadPoolExecutor ioExecutor,
             IN toConvert) {
 
             this.converter = converter;
-            this.writer = writer;
             this.progress = progress;
             this.worldConv = worldConv;
-            this.ioExecutor = ioExecutor;
             this.toConvert = toConvert;
         }
 
         @Override public Void call() {
             try {
+                long start = System.nanoTime();
                 OUT converted = converter.convert(toConvert);
-                IOWriteTask<OUT> data = new IOWriteTask<>(converted, writer, worldConv, progress);
+                worldConv.convertStats.record(start);
                 progress.update(null);
-                ioExecutor.submit(data);
+                worldConv.write(converted, progress);
             } catch (Throwable t) {
                 worldConv.handleError(t, progress);
             }
@@ -249,12 +676,12 @@ public class WorldConverter<IN, OUT> {
 
     private static class IOWriteTask<OUT> implements Callable<Void> {
 
-        private final OUT toWrite;
+        private final List<OUT> toWrite;
         private final ChunkDataWriter<OUT> writer;
-        private final WorldConverter worldConv;
+        private final WorldConverter<?, OUT> worldConv;
         private final IProgressListener progress;
 
-        IOWriteTask(OUT toWrite, ChunkDataWriter<OUT> writer, WorldConverter worldConv, IProgressListener progress) {
+        IOWriteTask(List<OUT> toWrite, ChunkDataWriter<OUT> writer, WorldConverter<?, OUT> worldConv, IProgressListener progress) {
             this.toWrite = toWrite;
             this.writer = writer;
             this.worldConv = worldConv;
@@ -263,7 +690,13 @@ public class WorldConverter<IN, OUT> {
 
         @Override public Void call() {
             try {
-                writer.accept(toWrite);
+                long start = System.nanoTime();
+                if (toWrite.size() == 1) {
+                    writer.accept(toWrite.get(0));
+                } else {
+                    writer.acceptBatch(toWrite);
+                }
+                worldConv.ioStats.record(start, toWrite.size());
             } catch (Throwable t) {
                 worldConv.handleError(t, progress);
             }
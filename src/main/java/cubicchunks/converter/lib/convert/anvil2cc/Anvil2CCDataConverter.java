@@ -34,25 +34,60 @@ import com.flowpowered.nbt.DoubleTag;
 import com.flowpowered.nbt.IntArrayTag;
 import com.flowpowered.nbt.IntTag;
 import com.flowpowered.nbt.ListTag;
+import com.flowpowered.nbt.Tag;
+import com.flowpowered.nbt.stream.NBTOutputStream;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.util.CubeTemplate;
+import cubicchunks.converter.lib.util.OpacityIndex;
+import cubicchunks.converter.lib.util.UniformSection;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData, CubicChunksColumnData> {
 
+    /**
+     * How the empty cubes filling the 0-15 range of each column are written, see {@link EmptyCubeMode}
+     */
+    public static final String EMPTY_CUBES = "emptyCubes";
+
+    private static final CompoundTag EMPTY_LIGHTING_INFO = makeEmptyLightingInfo();
+    private static final int MAX_UNIFORM_TEMPLATES = 1024;
+
+    private final CubeTemplate emptyCubeTemplate = new CubeTemplate(pos -> {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NBTOutputStream nbtOut = new NBTOutputStream(bytes, false);
+        nbtOut.writeTag(emptyCube(pos[0], pos[1], pos[2]));
+        nbtOut.close();
+        return bytes.toByteArray();
+    });
+    // cubes made of a single uniform section, like flat world layers, share their serialized form
+    private final Map<UniformCubeKey, CubeTemplate> uniformCubeTemplates = new ConcurrentHashMap<>();
+    private final ConverterConfig config;
+
+    public Anvil2CCDataConverter() {
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put(EMPTY_CUBES, EmptyCubeMode.TEMPLATE.name());
+        this.config = new ConverterConfig(defaults);
+    }
+
     public CubicChunksColumnData convert(AnvilChunkData input) {
         try {
             Map<Integer, ByteBuffer> cubes = extractCubeData(input.getData(), input.offsetSections);
@@ -60,19 +95,19 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
             EntryLocation2D location = new EntryLocation2D(input.getPosition().getEntryX(), input.getPosition().getEntryZ());
             return new CubicChunksColumnData(input.getDimension(), location, column, cubes);
         } catch (IOException impossible) {
-            throw new Error("ByteArrayInputStream doesn't throw IOException", impossible);
+            throw new Error("Reading from memory doesn't throw IOException", impossible);
         }
     }
 
 
     private ByteBuffer extractColumnData(ByteBuffer vanillaData) throws IOException {
-        ByteArrayInputStream in = new ByteArrayInputStream(vanillaData.array());
+        InputStream in = Utils.asInputStream(vanillaData);
         CompoundTag tag = Utils.readCompressed(in);
         CompoundTag columnTag = extractColumnData(tag);
         return Utils.writeCompressed(columnTag, false);
     }
 
-    private CompoundTag extractColumnData(CompoundTag tag) throws IOException {
+    private CompoundTag extractColumnData(CompoundTag tag) {
         /*
          *
          * Vanilla Chunk NBT structure:
@@ -123,7 +158,7 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
         levelMap.put(new IntTag("z", (Integer) srcLevel.get("zPos").getValue()));
         levelMap.put(srcLevel.getOrDefault("InhabitedTime", new IntTag("InhabitedTime", 0)));
         levelMap.put(srcLevel.get("Biomes"));
-        levelMap.put(new ByteArrayTag("OpacityIndex", makeDummyOpacityIndex(srcHeightMap)));
+        levelMap.put(new ByteArrayTag("OpacityIndex", OpacityIndex.encodeWithoutSegments(srcHeightMap)));
 
         CompoundMap rootMap = new CompoundMap();
         rootMap.put(new CompoundTag("Level", levelMap));
@@ -141,32 +176,27 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
         return heights;
     }
 
-    private byte[] makeDummyOpacityIndex(int[] heightMap) throws IOException {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream(buf);
-
-        for (int i = 0; i < 256; i++) { // 256 segment arrays
-            out.writeInt(0); // minY
-            out.writeInt(heightMap[i]); // maxY
-            out.writeShort(0); // no segments - write zero
-        }
-
-        out.close();
-        return buf.toByteArray();
-    }
-
     private Map<Integer, ByteBuffer> extractCubeData(ByteBuffer vanillaData, int offset) throws IOException {
-        ByteArrayInputStream in = new ByteArrayInputStream(vanillaData.array());
-        Map<Integer, CompoundTag> tags = extractCubeData(Utils.readCompressed(in), offset);
-        Map<Integer, ByteBuffer> bytes = new HashMap<>();
-        for (Integer y : tags.keySet()) {
-            bytes.put(y, Utils.writeCompressed(tags.get(y), false));
+        InputStream in = Utils.asInputStream(vanillaData);
+        CompoundTag srcRootTag = Utils.readCompressed(in);
+        Map<Integer, ByteBuffer> bytes = extractCubeData(srcRootTag, offset);
+        if (EmptyCubeMode.fromString(config.getString(EMPTY_CUBES)) == EmptyCubeMode.OMIT) {
+            return bytes;
+        }
+        // make sure the 0-15 range is there because it's using vanilla generator which expects it to be the case
+        CompoundMap srcLevel = ((CompoundTag) srcRootTag.getValue().get("Level")).getValue();
+        int x = (Integer) srcLevel.get("xPos").getValue();
+        int z = (Integer) srcLevel.get("zPos").getValue();
+        for (int y = 0; y < 16; y++) {
+            if (!bytes.containsKey(y)) {
+                bytes.put(y, emptyCubeTemplate.create(x, y, z));
+            }
         }
         return bytes;
     }
 
     @SuppressWarnings("unchecked")
-    private Map<Integer, CompoundTag> extractCubeData(CompoundTag srcRootTag, int offset) {
+    private Map<Integer, ByteBuffer> extractCubeData(CompoundTag srcRootTag, int offset) throws IOException {
         /*
          *
          * Vanilla Chunk NBT structure:
@@ -222,56 +252,78 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
          *   |- LastHeightMap
          */
         CompoundMap srcRoot = srcRootTag.getValue();
-        Map<Integer, CompoundTag> tags = new HashMap<>();
+        Map<Integer, ByteBuffer> cubes = new HashMap<>();
         CompoundMap srcLevel = ((CompoundTag) srcRoot.get("Level")).getValue();
         int x = (Integer) srcLevel.get("xPos").getValue();
         int z = (Integer) srcLevel.get("zPos").getValue();
+        int[] heightMap = (int[]) srcLevel.get("HeightMap").getValue();
         //noinspection unchecked
         for (CompoundTag srcSection : ((ListTag<CompoundTag>) srcLevel.get("Sections")).getValue()) {
             int y = ((ByteTag) srcSection.getValue().get("Y")).getValue();
 
-            CompoundMap root = new CompoundMap();
-            {
-                if (srcRoot.containsKey("DataVersion")) {
-                    root.put(srcRoot.get("DataVersion"));
-                }
-                CompoundMap level = new CompoundMap();
-
-                {
-                    level.put(new ByteTag("v", (byte) 1));
-                    level.put(new IntTag("x", x));
-                    level.put(new IntTag("y", y + offset));
-                    level.put(new IntTag("z", z));
-
-                    ByteTag populated = (ByteTag) srcLevel.get("TerrainPopulated");
-                    level.put(new ByteTag("populated", populated == null ? 0 : populated.getValue()));
-                    level.put(new ByteTag("fullyPopulated", populated == null ? 0 : populated.getValue())); // TODO: handle this properly
-                    level.put(new ByteTag("isSurfaceTracked", (byte) 0)); // so that cubic chunks can re-make surface tracking data on it's own
-
-                    ByteTag lightPopulated = (ByteTag) srcLevel.get("LightPopulated");
-                    level.put(new ByteTag("initLightDone", lightPopulated == null ? 0 : lightPopulated.getValue()));
-
-                    // the vanilla section has additional Y tag, it will be ignored by cubic chunks
-                    level.put(new ListTag<>("Sections", CompoundTag.class, singletonList(fixSection(srcSection))));
-
-                    level.put(filterEntities((ListTag<CompoundTag>) srcLevel.get("Entities"), y, offset));
-                    level.put(filterTileEntities((ListTag<?>) srcLevel.get("TileEntities"), y, offset));
-                    if (srcLevel.containsKey("TileTicks")) {
-                        level.put(filterTileTicks((ListTag<CompoundTag>) srcLevel.get("TileTicks"), y, offset));
-                    }
-                    level.put(makeLightingInfo(srcLevel));
-                }
-                root.put(new CompoundTag("Level", level));
+            CompoundTag section = fixSection(srcSection);
+            ListTag<CompoundTag> entities = filterEntities((ListTag<CompoundTag>) srcLevel.get("Entities"), y, offset);
+            ListTag<?> tileEntities = filterTileEntities((ListTag<?>) srcLevel.get("TileEntities"), y, offset);
+            ListTag<CompoundTag> tileTicks = srcLevel.containsKey("TileTicks")
+                    ? filterTileTicks((ListTag<CompoundTag>) srcLevel.get("TileTicks"), y, offset) : null;
+
+            UniformCubeKey key = UniformCubeKey.of(srcRoot, srcLevel, section, entities, tileEntities, tileTicks);
+            if (key != null && (uniformCubeTemplates.size() < MAX_UNIFORM_TEMPLATES || uniformCubeTemplates.containsKey(key))) {
+                CubeTemplate template = uniformCubeTemplates.computeIfAbsent(key, k -> new CubeTemplate(heightMap.length, arg -> {
+                    int[] markerHeightMap = Arrays.copyOfRange(arg, 3, arg.length);
+                    CompoundTag cube = makeCube(srcRoot, srcLevel, section, arg[0], arg[1], arg[2],
+                            entities, tileEntities, tileTicks, markerHeightMap);
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    NBTOutputStream nbtOut = new NBTOutputStream(bytes, false);
+                    nbtOut.writeTag(cube);
+                    nbtOut.close();
+                    return bytes.toByteArray();
+                }));
+                cubes.put(y + offset, template.create(x, y + offset, z, heightMap));
+                continue;
             }
-            tags.put(y + offset, new CompoundTag("", root));
+            CompoundTag cube = makeCube(srcRoot, srcLevel, section, x, y + offset, z, entities, tileEntities, tileTicks, heightMap);
+            cubes.put(y + offset, Utils.writeCompressed(cube, false));
         }
-        // make sure the 0-15 range is there because it's using vanilla generator which expects it to be the case
-        for (int y = 0; y < 16; y++) {
-            if (!tags.containsKey(y)) {
-                tags.put(y, emptyCube(x, y, z));
+        return cubes;
+    }
+
+    private CompoundTag makeCube(CompoundMap srcRoot, CompoundMap srcLevel, CompoundTag section, int x, int y, int z,
+            ListTag<CompoundTag> entities, ListTag<?> tileEntities, ListTag<CompoundTag> tileTicks, int[] heightMap) {
+        CompoundMap root = new CompoundMap();
+        {
+            if (srcRoot.containsKey("DataVersion")) {
+                root.put(srcRoot.get("DataVersion"));
             }
+            CompoundMap level = new CompoundMap();
+
+            {
+                level.put(new ByteTag("v", (byte) 1));
+                level.put(new IntTag("x", x));
+                level.put(new IntTag("y", y));
+                level.put(new IntTag("z", z));
+
+                ByteTag populated = (ByteTag) srcLevel.get("TerrainPopulated");
+                level.put(new ByteTag("populated", populated == null ? 0 : populated.getValue()));
+                level.put(new ByteTag("fullyPopulated", populated == null ? 0 : populated.getValue())); // TODO: handle this properly
+                level.put(new ByteTag("isSurfaceTracked", (byte) 0)); // so that cubic chunks can re-make surface tracking data on it's own
+
+                ByteTag lightPopulated = (ByteTag) srcLevel.get("LightPopulated");
+                level.put(new ByteTag("initLightDone", lightPopulated == null ? 0 : lightPopulated.getValue()));
+
+                // the vanilla section has additional Y tag, it will be ignored by cubic chunks
+                level.put(new ListTag<>("Sections", CompoundTag.class, singletonList(section)));
+
+                level.put(entities);
+                level.put(tileEntities);
+                if (tileTicks != null) {
+                    level.put(tileTicks);
+                }
+                level.put(makeLightingInfo(heightMap));
+            }
+            root.put(new CompoundTag("Level", level));
         }
-        return tags;
+        return new CompoundTag("", root);
     }
 
     private CompoundTag emptyCube(int x, int y, int z) {
@@ -296,20 +348,23 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
                 level.put(new ListTag<>("Entities", CompoundTag.class, emptyList()));
                 level.put(new ListTag<>("TileEntities", CompoundTag.class, emptyList()));
 
-                level.put(makeEmptyLightingInfo());
+                level.put(EMPTY_LIGHTING_INFO);
             }
             root.put(new CompoundTag("Level", level));
         }
         return new CompoundTag("", root);
     }
 
-    private CompoundTag makeEmptyLightingInfo() {
+    private static CompoundTag makeEmptyLightingInfo() {
         IntArrayTag heightmap = new IntArrayTag("LastHeightMap", new int[256]);
         CompoundMap lightingInfoMap = new CompoundMap();
         lightingInfoMap.put(heightmap);
         return new CompoundTag("LightingInfo", lightingInfoMap);
     }
 
+    @Override public ConverterConfig getConfig() {
+        return config;
+    }
 
     private CompoundTag fixSection(CompoundTag srcSection) {
         ByteArrayTag data = (ByteArrayTag) srcSection.getValue().get("Blocks");
@@ -323,8 +378,8 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
         return srcSection;
     }
 
-    private CompoundTag makeLightingInfo(CompoundMap srcLevel) {
-        IntArrayTag heightmap = new IntArrayTag("LastHeightMap", (int[]) srcLevel.get("HeightMap").getValue());
+    private CompoundTag makeLightingInfo(int[] heightMap) {
+        IntArrayTag heightmap = new IntArrayTag("LastHeightMap", heightMap);
         CompoundMap lightingInfoMap = new CompoundMap();
         lightingInfoMap.put(heightmap);
         return new CompoundTag("LightingInfo", lightingInfoMap);
@@ -389,4 +444,113 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
         return new ListTag<>(tileTicks.getName(), CompoundTag.class, cubeTicks);
     }
 
+    public enum EmptyCubeMode {
+        /**
+         * Empty cubes are written from a pre-serialized template with only the coordinates patched in
+         */
+        TEMPLATE,
+        /**
+         * Empty cubes are not written, cubic chunks will generate the missing cubes itself
+         */
+        OMIT;
+
+        public static EmptyCubeMode fromString(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Everything a converted cube depends on except for its coordinates and LastHeightMap, for cubes with a uniform section
+     * and no entities, tile entities or tile ticks. Cubes with equal keys serialize the same way.
+     */
+    private static final class UniformCubeKey {
+
+        private static final Set<String> SECTION_TAGS = new HashSet<>(Arrays.asList("Y", "Blocks", "Data", "Add", "BlockLight", "SkyLight"));
+
+        private final long sectionSignature;
+        private final byte sectionY;
+        private final Integer dataVersion;
+        private final Byte populated;
+        private final Byte lightPopulated;
+        private final Class<?> tileEntityType;
+        private final boolean hasTileTicks;
+
+        private UniformCubeKey(long sectionSignature, byte sectionY, Integer dataVersion, Byte populated, Byte lightPopulated,
+                Class<?> tileEntityType, boolean hasTileTicks) {
+            this.sectionSignature = sectionSignature;
+            this.sectionY = sectionY;
+            this.dataVersion = dataVersion;
+            this.populated = populated;
+            this.lightPopulated = lightPopulated;
+            this.tileEntityType = tileEntityType;
+            this.hasTileTicks = hasTileTicks;
+        }
+
+        /**
+         * Returns the key of the cube, or null if the cube can't be written from a template.
+         */
+        static UniformCubeKey of(CompoundMap srcRoot, CompoundMap srcLevel, CompoundTag section,
+                ListTag<CompoundTag> entities, ListTag<?> tileEntities, ListTag<CompoundTag> tileTicks) {
+            if (!entities.getValue().isEmpty() || !tileEntities.getValue().isEmpty()
+                    || (tileTicks != null && !tileTicks.getValue().isEmpty())) {
+                return null;
+            }
+            if (!(srcLevel.get("HeightMap") instanceof IntArrayTag) || ((IntArrayTag) srcLevel.get("HeightMap")).getValue().length != 256) {
+                return null;
+            }
+            CompoundMap sectionMap = section.getValue();
+            for (Tag<?> tag : sectionMap.values()) {
+                if (!SECTION_TAGS.contains(tag.getName()) || (!(tag instanceof ByteArrayTag) && !tag.getName().equals("Y"))) {
+                    return null;
+                }
+            }
+            long signature = UniformSection.signature(byteArray(sectionMap, "Blocks"), byteArray(sectionMap, "Add"),
+                    byteArray(sectionMap, "Data"), byteArray(sectionMap, "BlockLight"), byteArray(sectionMap, "SkyLight"));
+            if (signature == UniformSection.NOT_UNIFORM) {
+                return null;
+            }
+            Tag<?> dataVersion = srcRoot.get("DataVersion");
+            if (dataVersion != null && !(dataVersion instanceof IntTag)) {
+                return null;
+            }
+            return new UniformCubeKey(signature,
+                    ((ByteTag) sectionMap.get("Y")).getValue(),
+                    dataVersion == null ? null : ((IntTag) dataVersion).getValue(),
+                    byteValue(srcLevel, "TerrainPopulated"),
+                    byteValue(srcLevel, "LightPopulated"),
+                    tileEntities.getElementType(),
+                    tileTicks != null);
+        }
+
+        private static byte[] byteArray(CompoundMap map, String name) {
+            Tag<?> tag = map.get(name);
+            return tag == null ? null : ((ByteArrayTag) tag).getValue();
+        }
+
+        private static Byte byteValue(CompoundMap map, String name) {
+            Tag<?> tag = map.get(name);
+            return tag == null ? null : ((ByteTag) tag).getValue();
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            UniformCubeKey that = (UniformCubeKey) o;
+            return sectionSignature == that.sectionSignature
+                    && sectionY == that.sectionY
+                    && hasTileTicks == that.hasTileTicks
+                    && Objects.equals(dataVersion, that.dataVersion)
+                    && Objects.equals(populated, that.populated)
+                    && Objects.equals(lightPopulated, that.lightPopulated)
+                    && Objects.equals(tileEntityType, that.tileEntityType);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(sectionSignature, sectionY, dataVersion, populated, lightPopulated, tileEntityType, hasTileTicks);
+        }
+    }
 }
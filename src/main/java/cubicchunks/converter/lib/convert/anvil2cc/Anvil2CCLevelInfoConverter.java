@@ -31,6 +31,8 @@ import com.flowpowered.nbt.Tag;
 import com.flowpowered.nbt.stream.NBTInputStream;
 import com.flowpowered.nbt.stream.NBTOutputStream;
 import cubicchunks.converter.lib.Dimensions;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.util.LevelDataCopier;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
@@ -46,10 +48,26 @@ public class Anvil2CCLevelInfoConverter implements LevelInfoConverter<AnvilChunk
 
     private final Path srcDir;
     private final Path dstDir;
+    private final LevelDataCopier levelData;
 
     public Anvil2CCLevelInfoConverter(Path srcDir, Path dstDir) {
         this.srcDir = srcDir;
         this.dstDir = dstDir;
+        this.levelData = new LevelDataCopier(srcDir, dstDir, file ->
+            file.toString().contains("level.dat") || file.toString().contains("cubicChunksData.dat") ||
+                Dimensions.getDimensions().stream().anyMatch(dim ->
+                    srcDir.resolve(dim.getDirectory()).resolve("region").equals(file)
+                )
+        );
+    }
+
+    @Override public ConverterConfig getConfig() {
+        return levelData.getConfig();
+    }
+
+    @Override public void start() throws IOException {
+        Utils.createDirectories(dstDir);
+        levelData.start();
     }
 
     @Override public void convert() throws IOException {
@@ -88,15 +106,7 @@ public class Anvil2CCLevelInfoConverter implements LevelInfoConverter<AnvilChunk
             Files.createDirectories(dstDir);
 
             nbtOut.writeTag(new CompoundTag(root.getName(), newRoot));
-
-            Utils.copyEverythingExcept(srcDir, srcDir, dstDir, file ->
-                    file.toString().contains("level.dat") || file.toString().contains("cubicChunksData.dat") ||
-                        Dimensions.getDimensions().stream().anyMatch(dim ->
-                            srcDir.resolve(dim.getDirectory()).resolve("region").equals(file)
-                        ),
-                f -> {
-                } // TODO: counting files
-            );
         }
+        levelData.await();
     }
 }
@@ -10,7 +10,6 @@ import cubicchunks.converter.lib.convert.data.NukkitChunkData;
 import cubicchunks.converter.lib.util.NibbleArray;
 import cubicchunks.converter.lib.util.Utils;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
 /**
@@ -181,7 +180,7 @@ public class Anvil2NukkitDataConverter implements ChunkDataConverter<AnvilChunkD
     @SuppressWarnings("unchecked")
     public NukkitChunkData convert(AnvilChunkData input) {
         try {
-            CompoundTag tag = Utils.readCompressed(new ByteArrayInputStream(input.getData().array()));
+            CompoundTag tag = Utils.readCompressed(Utils.asInputStream(input.getData()));
             boolean dirty = ((ListTag<CompoundTag>) ((CompoundTag) tag.getValue().get("Level")).getValue().get("Sections")).getValue().stream()
                     .mapToInt(Anvil2NukkitDataConverter::fixSection)
                     .max().orElse(0) != 0;
@@ -23,6 +23,7 @@
  */
 package cubicchunks.converter.lib.convert.cc2anvil;
 
+import com.flowpowered.nbt.ByteArrayTag;
 import com.flowpowered.nbt.ByteTag;
 import com.flowpowered.nbt.CompoundMap;
 import com.flowpowered.nbt.CompoundTag;
@@ -35,24 +36,35 @@ import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.data.MultilayerAnvilChunkData;
+import cubicchunks.converter.lib.util.OpacityIndex;
 import cubicchunks.regionlib.impl.MinecraftChunkLocation;
 
 import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.ZipException;
 
 import static cubicchunks.converter.lib.util.Utils.*;
 
 public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColumnData, MultilayerAnvilChunkData> {
 
+    // in fork-join execution mode, columns with at least this many world layers convert their layers as separate tasks, 0 disables it
+    public static final String LAYER_PARALLEL_THRESHOLD = "layerParallelThreshold";
+
+    private final ConverterConfig config;
+
+    public CC2AnvilDataConverter() {
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put(LAYER_PARALLEL_THRESHOLD, 4);
+        this.config = new ConverterConfig(defaults);
+    }
+
     @Override public MultilayerAnvilChunkData convert(CubicChunksColumnData input) {
         Map<Integer, AnvilChunkData> data = new HashMap<>();
         MinecraftChunkLocation chunkPos = new MinecraftChunkLocation(input.getPosition().getEntryX(), input.getPosition().getEntryZ(), "mca");
@@ -63,6 +75,11 @@ public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColu
             ByteBuffer[] sections = worldLayers.computeIfAbsent(toWorldLayerY(key), y -> new ByteBuffer[16]);
             sections[toLayerSection(key)] = value;
         });
+        int threshold = config.getInt(LAYER_PARALLEL_THRESHOLD);
+        // only split when already running in the converter's fork-join pool, never borrow the common pool
+        if (threshold > 0 && worldLayers.size() >= threshold && ForkJoinTask.inForkJoinPool()) {
+            return new MultilayerAnvilChunkData(convertLayersParallel(input, chunkPos, worldLayers));
+        }
         // convert each world layer separately
         worldLayers.forEach((key, value) ->
             data.put(key, new AnvilChunkData(input.getDimension(), chunkPos, convertWorldLayer(input.getColumnData(), value, key), 0))
@@ -70,6 +87,51 @@ public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColu
         return new MultilayerAnvilChunkData(data);
     }
 
+    /**
+     * Converts only one world layer of the column, for converting single chunks on demand.
+     * Returns null if the column has no cubes in that layer, or the layer would be dropped.
+     */
+    public AnvilChunkData convertLayer(CubicChunksColumnData input, int layerY) {
+        ByteBuffer[] sections = new ByteBuffer[16];
+        boolean any = false;
+        for (Map.Entry<Integer, ByteBuffer> cube : input.getCubeData().entrySet()) {
+            if (toWorldLayerY(cube.getKey()) == layerY) {
+                sections[toLayerSection(cube.getKey())] = cube.getValue();
+                any = true;
+            }
+        }
+        if (!any) {
+            return null;
+        }
+        ByteBuffer data = convertWorldLayer(input.getColumnData(), sections, layerY);
+        if (data == null) {
+            return null;
+        }
+        MinecraftChunkLocation chunkPos = new MinecraftChunkLocation(input.getPosition().getEntryX(), input.getPosition().getEntryZ(), "mca");
+        return new AnvilChunkData(input.getDimension(), chunkPos, data, 0);
+    }
+
+    /**
+     * Converts world layers of a tall column as fork-join subtasks, so that one column can't keep a single thread busy
+     * for much longer than others. Must be called from a fork-join pool.
+     */
+    private Map<Integer, AnvilChunkData> convertLayersParallel(CubicChunksColumnData input, MinecraftChunkLocation chunkPos,
+        Map<Integer, ByteBuffer[]> worldLayers) {
+
+        List<Integer> layers = new ArrayList<>(worldLayers.keySet());
+        List<ForkJoinTask<ByteBuffer>> tasks = new ArrayList<>(layers.size());
+        for (Integer layer : layers) {
+            ByteBuffer[] cubes = worldLayers.get(layer);
+            tasks.add(ForkJoinTask.adapt(() -> convertWorldLayer(input.getColumnData(), cubes, layer)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        Map<Integer, AnvilChunkData> data = new HashMap<>();
+        for (int i = 0; i < layers.size(); i++) {
+            data.put(layers.get(i), new AnvilChunkData(input.getDimension(), chunkPos, tasks.get(i).join(), 0));
+        }
+        return data;
+    }
+
     private ByteBuffer convertWorldLayer(ByteBuffer columnData, ByteBuffer[] cubes, int layerIdx) {
         try {
             if (dropChunk(cubes, layerIdx)) {
@@ -213,6 +275,7 @@ public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColu
          *  |- LightingInfo
          *   |- LastHeightMap
          */
+        OpacityIndex opacityIndex = null;
         if (column != null) {
             CompoundMap columnLevel = (CompoundMap) column.getValue().get("Level").getValue();
             for (Tag<?> tag : columnLevel) {
@@ -224,18 +287,15 @@ public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColu
                         level.put(renamedInt(tag, "zPos"));
                         break;
                     case "OpacityIndex":
-                        level.put(getHeightMap(tag, layerIdx));
+                        opacityIndex = readOpacityIndex(tag);
                         break;
                     default:
                         level.put(tag);
                 }
             }
         }
-        // TODO: use existing heightmap? Is it safe?
-        int[] heights = new int[256];
-        Arrays.fill(heights, -999);
-        Tag<?> heightsTag = new IntArrayTag("HeightMap", heights);
-        level.put(heightsTag);
+        int[] heightMap = LayerLighting.computeHeightMap(opacityIndex, getSectionArrays(cubes, "Blocks"), getSectionArrays(cubes, "Add"), layerIdx);
+        level.put(new IntArrayTag("HeightMap", heightMap));
 
         for (CompoundTag cube : cubes) {
             if (cube != null) {
@@ -257,33 +317,57 @@ public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColu
         level.put(getIsPopulated(cubes, layerIdx));
         level.put(new ByteTag("LightPopulated", (byte) 1)); // can't let vanilla recalculate lighting because 1.14.x drops such chunks :(
 
-        level.put(getSections(cubes));
+        level.put(getSections(cubes, heightMap));
         level.put(getEntities(cubes));
         level.put(getTileEntities(cubes));
         level.put(getTileTicks(cubes));
     }
 
-    private Tag<?> getSections(CompoundTag[] cubes) {
+    private Tag<?> getSections(CompoundTag[] cubes, int[] heightMap) {
         List<CompoundTag> sections = new ArrayList<>();
         for (int y = 0; y < cubes.length; y++) {
-            if (cubes[y] == null) {
-                continue;
-            }
-            CompoundMap oldLevel = (CompoundMap) cubes[y].getValue().get("Level").getValue();
-            if (oldLevel.get("Sections") == null) {
+            CompoundMap oldSection = getSection(cubes[y]);
+            if (oldSection == null) {
                 continue;
             }
             CompoundMap newSection = new CompoundMap();
-            @SuppressWarnings("unchecked")
-            List<CompoundTag> oldSections = (List<CompoundTag>) oldLevel.get("Sections").getValue();
-            CompoundMap oldSection = oldSections.get(0).getValue();
             newSection.putAll(oldSection);
             newSection.put(new ByteTag("Y", (byte) y));
+            CompoundMap oldLevel = (CompoundMap) cubes[y].getValue().get("Level").getValue();
+            ByteTag lightDone = (ByteTag) oldLevel.get("initLightDone");
+            // sections without SkyLight are from worlds without sky, leave them alone
+            if ((lightDone == null || lightDone.getValue() == 0) && oldSection.containsKey("SkyLight")) {
+                newSection.put(new ByteArrayTag("SkyLight", LayerLighting.computeSkyLight(heightMap, y)));
+            }
             sections.add(new CompoundTag("", newSection));
         }
         return new ListTag<>("Sections", CompoundTag.class, sections);
     }
 
+    private static CompoundMap getSection(CompoundTag cube) {
+        if (cube == null) {
+            return null;
+        }
+        CompoundMap level = (CompoundMap) cube.getValue().get("Level").getValue();
+        if (level.get("Sections") == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        List<CompoundTag> sections = (List<CompoundTag>) level.get("Sections").getValue();
+        return sections.isEmpty() ? null : sections.get(0).getValue();
+    }
+
+    private static byte[][] getSectionArrays(CompoundTag[] cubes, String name) {
+        byte[][] arrays = new byte[cubes.length][];
+        for (int y = 0; y < cubes.length; y++) {
+            CompoundMap section = getSection(cubes[y]);
+            if (section != null && section.get(name) != null) {
+                arrays[y] = (byte[]) section.get(name).getValue();
+            }
+        }
+        return arrays;
+    }
+
     private Tag<?> getEntities(CompoundTag[] cubes) {
         return new ListTag<>("Entities", CompoundTag.class, new ArrayList<>());
     }
@@ -310,27 +394,13 @@ public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColu
         return new ByteTag("TerrainPopulated", (byte) 1);
     }
 
-    private Tag<?> getHeightMap(Tag<?> opacityIndex, int layerIdx) {
-        byte[] array = (byte[]) opacityIndex.getValue();
-        int[] output = new int[256];
-        ByteArrayInputStream buf = new ByteArrayInputStream(array);
-        try (DataInputStream in = new DataInputStream(buf)) {
-
-            for (int i = 0; i < output.length; i++) {
-                in.readInt(); // yMin
-                output[i] = (in.readInt() + 1) - (layerIdx * 256);
-                int segmentCount = in.readUnsignedShort();
-                for (int j = 0; j < segmentCount; j++) {
-                    in.readInt();
-                }
-            }
-        } catch (EOFException e) {
+    private OpacityIndex readOpacityIndex(Tag<?> opacityIndex) {
+        try {
+            return OpacityIndex.decode(ByteBuffer.wrap((byte[]) opacityIndex.getValue()));
+        } catch (BufferUnderflowException e) {
             e.printStackTrace();
-            Arrays.fill(output, -999);
-        } catch (IOException e) {
-            throw new Error("ByteArrayInputStream doesn't throw IOException");
+            return null;
         }
-        return new IntArrayTag("HeightMap", output);
     }
 
     private IntTag renamedInt(Tag<?> old, String newName) {
@@ -338,7 +408,7 @@ public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColu
     }
 
     @Override public ConverterConfig getConfig() {
-        return new ConverterConfig(new HashMap<>());
+        return config;
     }
 
     private static int toWorldLayerY(int cubeY) {
@@ -30,6 +30,8 @@ import com.flowpowered.nbt.Tag;
 import com.flowpowered.nbt.stream.NBTInputStream;
 import com.flowpowered.nbt.stream.NBTOutputStream;
 import cubicchunks.converter.lib.Dimensions;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.util.LevelDataCopier;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.converter.lib.convert.LevelInfoConverter;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
@@ -40,19 +42,47 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 public class CC2AnvilLevelInfoConverter implements LevelInfoConverter<CubicChunksColumnData, MultilayerAnvilChunkData> {
 
+    private static final String LEVEL_DATA_STAGING = ".level_data";
+
     private final Path srcPath;
     private final Path dstPath;
+    // copied once while chunks are converted, then linked into each layer
+    private final Path stagingPath;
+    private final LevelDataCopier levelData;
 
     public CC2AnvilLevelInfoConverter(Path srcPath, Path dstPath) {
         this.srcPath = srcPath;
         this.dstPath = dstPath;
+        this.stagingPath = dstPath.resolve(LEVEL_DATA_STAGING);
+        this.levelData = new LevelDataCopier(srcPath, stagingPath, file ->
+            file.toString().contains("level.dat") || file.toString().endsWith("custom_generator_settings.json")
+                || file.toString().endsWith("cubicChunksData.dat") || file.toString().endsWith("cubicchunks_spawncubes.dat") ||
+                Dimensions.getDimensions().stream().anyMatch(dim ->
+                    srcPath.resolve(dim.getDirectory()).resolve("region2d").equals(file)
+                        || srcPath.resolve(dim.getDirectory()).resolve("region3d").equals(file)
+                )
+        );
+    }
+
+    @Override public ConverterConfig getConfig() {
+        return levelData.getConfig();
+    }
+
+    @Override public void start() throws IOException {
+        Files.createDirectories(stagingPath);
+        levelData.start();
     }
 
     @Override public void convert() throws IOException {
+        List<Path> levelFiles = levelData.await();
         Utils.forEachDirectory(dstPath, dir -> {
+            if (dir.equals(stagingPath)) {
+                return;
+            }
             CompoundTag root;
             try (NBTInputStream nbtIn = new NBTInputStream(new FileInputStream(srcPath.resolve("level.dat").toFile()));
                 NBTOutputStream nbtOut = new NBTOutputStream(new FileOutputStream(dir.resolve("level.dat").toFile()))) {
@@ -84,18 +114,10 @@ public class CC2AnvilLevelInfoConverter implements LevelInfoConverter<CubicChunk
 
                 nbtOut.writeTag(new CompoundTag(root.getName(), newRoot));
 
-                Utils.copyEverythingExcept(srcPath, srcPath, dir, file ->
-                        file.toString().contains("level.dat") || file.toString().endsWith("custom_generator_settings.json")
-                                || file.toString().endsWith("cubicChunksData.dat") || file.toString().endsWith("cubicchunks_spawncubes.dat") ||
-                            Dimensions.getDimensions().stream().anyMatch(dim ->
-                                srcPath.resolve(dim.getDirectory()).resolve("region2d").equals(file)
-                                    || srcPath.resolve(dim.getDirectory()).resolve("region3d").equals(file)
-                            ),
-                    f -> {
-                    } // TODO: counting files
-                );
+                LevelDataCopier.link(stagingPath, dir, levelFiles);
             }
         });
+        Utils.rm(stagingPath);
     }
 
     private String getGeneratorName(String value) {
@@ -0,0 +1,147 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.cc2anvil;
+
+import cubicchunks.converter.lib.util.OpacityIndex;
+import cubicchunks.converter.lib.util.UniformSection;
+
+/**
+ * Computes vanilla heightmaps and a heightmap based skylight for a single world layer of a column.
+ */
+final class LayerLighting {
+
+    private static final int SECTIONS = 16;
+    private static final int UNKNOWN = -1;
+
+    // legacy block ids that have light opacity 0 in vanilla, everything else counts as opaque
+    private static final boolean[] TRANSPARENT = new boolean[4096];
+
+    static {
+        int[] ids = {
+            0, 6, 20, 26, 27, 28, 31, 32, 37, 38, 39, 40, 50, 51, 55, 59, 63, 64, 65, 66, 68, 69, 70, 71, 72, 75, 76, 77,
+            78, 83, 85, 90, 92, 93, 94, 95, 96, 101, 102, 104, 105, 106, 107, 111, 113, 115, 119, 122, 127, 131, 132, 139,
+            140, 141, 142, 143, 147, 148, 149, 150, 157, 160, 166, 167, 171, 175, 176, 177, 183, 184, 185, 186, 187, 188,
+            189, 190, 191, 192, 193, 194, 195, 196, 197, 198, 207
+        };
+        for (int id : ids) {
+            TRANSPARENT[id] = true;
+        }
+    }
+
+    private LayerLighting() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @param index the column OpacityIndex, or null if there is none
+     * @param blocks Blocks arrays of the 16 sections in the layer, null for missing sections
+     * @param add Add arrays of the 16 sections in the layer, null when missing
+     * @return vanilla heightmap, the layer-local y above the top opaque block for each x | z << 4
+     */
+    static int[] computeHeightMap(OpacityIndex index, byte[][] blocks, byte[][] add, int layerIdx) {
+        int[] heights = new int[OpacityIndex.COLUMNS];
+        int unknown = 0;
+        int layerMinY = layerIdx * 256;
+        for (int i = 0; i < heights.length; i++) {
+            if (index == null) {
+                heights[i] = UNKNOWN;
+                unknown++;
+                continue;
+            }
+            int top = index.getTopBlockY(i);
+            if (top < layerMinY) {
+                heights[i] = 0;
+            } else if (top < layerMinY + 256) {
+                heights[i] = top - layerMinY + 1;
+            } else {
+                // the top block is in a layer above this one, find the top of this layer
+                heights[i] = UNKNOWN;
+                unknown++;
+            }
+        }
+        for (int sectionY = SECTIONS - 1; sectionY >= 0 && unknown > 0; sectionY--) {
+            byte[] ids = blocks[sectionY];
+            if (ids == null) {
+                continue;
+            }
+            byte[] ext = add[sectionY];
+            int uniformId = UniformSection.uniformBlockId(ids, ext);
+            if (uniformId >= 0) {
+                // a section of a single block is either skipped entirely or ends every remaining column at its top
+                if (!TRANSPARENT[uniformId]) {
+                    for (int i = 0; i < 256; i++) {
+                        if (heights[i] == UNKNOWN) {
+                            heights[i] = (sectionY << 4) + 16;
+                        }
+                    }
+                    unknown = 0;
+                }
+                continue;
+            }
+            for (int y = 15; y >= 0 && unknown > 0; y--) {
+                int base = y << 8;
+                for (int i = 0; i < 256; i++) {
+                    if (heights[i] == UNKNOWN && !TRANSPARENT[blockId(ids, ext, base | i)]) {
+                        heights[i] = (sectionY << 4) + y + 1;
+                        unknown--;
+                    }
+                }
+            }
+        }
+        if (unknown > 0) {
+            for (int i = 0; i < heights.length; i++) {
+                if (heights[i] == UNKNOWN) {
+                    heights[i] = 0;
+                }
+            }
+        }
+        return heights;
+    }
+
+    /**
+     * Creates skylight for a section without lighting data: full light above the heightmap, none below it.
+     */
+    static byte[] computeSkyLight(int[] heightMap, int sectionY) {
+        byte[] light = new byte[2048];
+        int minY = sectionY << 4;
+        for (int y = 0; y < 16; y++) {
+            int blockY = minY + y;
+            int base = y << 8;
+            for (int i = 0; i < 256; i += 2) {
+                int lower = blockY >= heightMap[i] ? 0xF : 0;
+                int upper = blockY >= heightMap[i + 1] ? 0xF0 : 0;
+                light[(base | i) >> 1] = (byte) (lower | upper);
+            }
+        }
+        return light;
+    }
+
+    private static int blockId(byte[] ids, byte[] add, int idx) {
+        int id = ids[idx] & 0xFF;
+        if (add != null) {
+            id |= ((add[idx >> 1] >> ((idx & 1) << 2)) & 0xF) << 8;
+        }
+        return id;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.flow;
+
+import cubicchunks.converter.lib.convert.ChunkDataConverter;
+import cubicchunks.converter.lib.convert.ChunkDataReader;
+import cubicchunks.converter.lib.convert.ChunkDataWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Wires a reader, custom stages and a writer into reactive pipelines. When the reader can split loading, there is
+ * one pipeline per load task and the executor decides how many of them run at once, otherwise there is a single pipeline.
+ * Each pipeline is a chain of direct calls with demand flowing back to the loading thread, there are no queues between stages.
+ */
+public final class ConversionFlow {
+
+    private ConversionFlow() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Starts counting input chunks of the reader on the executor. Some readers can't split or load chunks until
+     * counting has finished, see {@link ChunkDataReader#countInputChunks(Runnable)}.
+     *
+     * @return future completed when counting has finished
+     */
+    public static CompletableFuture<Void> startCounting(ChunkDataReader<?> reader, Executor executor) {
+        CompletableFuture<Void> counted = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                reader.countInputChunks(() -> {});
+                counted.complete(null);
+            } catch (Throwable t) {
+                counted.completeExceptionally(t);
+            }
+        });
+        return counted;
+    }
+
+    /**
+     * Starts counting input chunks, and creates the publishers of all chunks of the reader, see {@link ReaderPublisher}.
+     * A {@link ReaderPublisher} created directly needs {@link #startCounting(ChunkDataReader, Executor)} called first.
+     */
+    public static <T> List<Flow.Publisher<T>> publishers(ChunkDataReader<T> reader, Executor executor)
+        throws IOException, InterruptedException {
+        startCounting(reader, executor);
+        return createPublishers(reader, executor);
+    }
+
+    private static <T> List<Flow.Publisher<T>> createPublishers(ChunkDataReader<T> reader, Executor executor)
+        throws IOException, InterruptedException {
+        List<ChunkDataReader.LoadTask<T>> tasks = reader.splitLoading();
+        List<Flow.Publisher<T>> publishers = new ArrayList<>();
+        if (tasks.isEmpty()) {
+            publishers.add(new ReaderPublisher<>(reader, executor));
+        } else {
+            for (ChunkDataReader.LoadTask<T> task : tasks) {
+                publishers.add(new ReaderPublisher<>(task, executor));
+            }
+        }
+        return publishers;
+    }
+
+    /**
+     * Converts all chunks of the reader and writes them.
+     *
+     * @param stages applied to the publisher of each pipeline, to add custom processors between reading and writing
+     * @return future completed when all pipelines have finished, the reader and writer are left open
+     */
+    public static <IN, OUT> CompletableFuture<Void> run(ChunkDataReader<IN> reader, Function<Flow.Publisher<IN>, Flow.Publisher<OUT>> stages,
+        ChunkDataWriter<OUT> writer, int batchSize, Executor executor) throws IOException, InterruptedException {
+        List<CompletableFuture<Void>> pipelines = new ArrayList<>();
+        // a failed count fails the run, even for readers that load without waiting for it
+        pipelines.add(startCounting(reader, executor));
+        for (Flow.Publisher<IN> publisher : createPublishers(reader, executor)) {
+            WriterSubscriber<OUT> subscriber = new WriterSubscriber<>(writer, batchSize);
+            pipelines.add(subscriber.getCompletion());
+            stages.apply(publisher).subscribe(subscriber);
+        }
+        return CompletableFuture.allOf(pipelines.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Converts all chunks of the reader with the converter, and writes them.
+     */
+    public static <IN, OUT> CompletableFuture<Void> convert(ChunkDataReader<IN> reader, ChunkDataConverter<IN, OUT> converter,
+        ChunkDataWriter<OUT> writer, int batchSize, Executor executor) throws IOException, InterruptedException {
+        return run(reader, publisher -> through(publisher, new ConverterProcessor<>(converter)), writer, batchSize, executor);
+    }
+
+    /**
+     * Subscribes the processor to the publisher and returns it, for chaining stages.
+     */
+    public static <T, R> Flow.Publisher<R> through(Flow.Publisher<T> publisher, Flow.Processor<? super T, R> processor) {
+        publisher.subscribe(processor);
+        return processor;
+    }
+}
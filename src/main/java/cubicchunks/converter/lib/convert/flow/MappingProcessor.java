@@ -0,0 +1,177 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.flow;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Processor that transforms each item on the thread that delivers it, without buffering. Demand of the downstream
+ * subscriber is passed upstream as is, and items dropped by the mapping are replaced by requesting one more.
+ * Can be subscribed to upstream and downstream in either order, but each only once.
+ */
+public abstract class MappingProcessor<IN, OUT> implements Flow.Processor<IN, OUT> {
+
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super OUT> downstream;
+    private boolean linking;
+    private boolean linked;
+    // terminal signal received before the downstream subscriber got its subscription, null error for completion
+    private Throwable pendingError;
+    private boolean pendingTerminal;
+    private volatile boolean done;
+
+    public static <IN, OUT> MappingProcessor<IN, OUT> map(Function<? super IN, ? extends OUT> function) {
+        return new MappingProcessor<IN, OUT>() {
+            @Override protected OUT apply(IN item) {
+                return function.apply(item);
+            }
+        };
+    }
+
+    public static <T> MappingProcessor<T, T> filter(Predicate<? super T> predicate) {
+        return new MappingProcessor<T, T>() {
+            @Override protected T apply(T item) {
+                return predicate.test(item) ? item : null;
+            }
+        };
+    }
+
+    /**
+     * Passes all items through unchanged after giving them to the action, for example to collect statistics.
+     */
+    public static <T> MappingProcessor<T, T> peek(Consumer<? super T> action) {
+        return new MappingProcessor<T, T>() {
+            @Override protected T apply(T item) {
+                action.accept(item);
+                return item;
+            }
+        };
+    }
+
+    /**
+     * Returns the item to pass downstream, or null to drop it.
+     */
+    protected abstract OUT apply(IN item);
+
+    @Override public void subscribe(Flow.Subscriber<? super OUT> subscriber) {
+        synchronized (this) {
+            if (downstream != null) {
+                throw new IllegalStateException("MappingProcessor can only have one subscriber");
+            }
+            downstream = subscriber;
+        }
+        link();
+    }
+
+    @Override public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        }
+        link();
+    }
+
+    private void link() {
+        Flow.Subscriber<? super OUT> subscriber;
+        Flow.Subscription subscription;
+        synchronized (this) {
+            if (upstream == null || downstream == null || linking) {
+                return;
+            }
+            linking = true;
+            subscriber = downstream;
+            subscription = upstream;
+        }
+        subscriber.onSubscribe(subscription);
+        boolean terminal;
+        Throwable error;
+        synchronized (this) {
+            linked = true;
+            terminal = pendingTerminal;
+            error = pendingError;
+        }
+        if (terminal) {
+            signalTerminal(subscriber, error);
+        }
+    }
+
+    @Override public void onNext(IN item) {
+        if (done) {
+            return;
+        }
+        OUT result;
+        try {
+            result = apply(item);
+        } catch (Throwable t) {
+            upstream.cancel();
+            onError(t);
+            return;
+        }
+        if (result == null) {
+            upstream.request(1);
+        } else {
+            downstream.onNext(result);
+        }
+    }
+
+    @Override public void onError(Throwable throwable) {
+        terminate(throwable);
+    }
+
+    @Override public void onComplete() {
+        terminate(null);
+    }
+
+    private void terminate(Throwable error) {
+        Flow.Subscriber<? super OUT> subscriber;
+        synchronized (this) {
+            if (!linked) {
+                pendingTerminal = true;
+                pendingError = error;
+                return;
+            }
+            subscriber = downstream;
+        }
+        signalTerminal(subscriber, error);
+    }
+
+    private void signalTerminal(Flow.Subscriber<? super OUT> subscriber, Throwable error) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+        }
+        if (error == null) {
+            subscriber.onComplete();
+        } else {
+            subscriber.onError(error);
+        }
+    }
+}
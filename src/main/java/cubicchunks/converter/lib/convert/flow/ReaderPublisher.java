@@ -0,0 +1,123 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.flow;
+
+import cubicchunks.converter.lib.convert.ChunkDataReader;
+import cubicchunks.converter.lib.util.UncheckedInterruptedException;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Publishes chunks loaded by a {@link ChunkDataReader}, or by one of its load tasks. Loading starts on the given executor
+ * when a subscriber subscribes, and the loading thread blocks whenever the subscriber has no outstanding demand,
+ * so the reader never gets ahead of the slowest stage. Each publisher can be subscribed to once.
+ * Counting input chunks of the reader must have been started, see {@link ConversionFlow#startCounting}.
+ */
+public class ReaderPublisher<T> implements Flow.Publisher<T> {
+
+    private final Source<T> source;
+    private final Runnable stop;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public ReaderPublisher(ChunkDataReader<T> reader, Executor executor) {
+        this(reader::loadChunks, reader::stop, executor);
+    }
+
+    public ReaderPublisher(ChunkDataReader.LoadTask<T> task, Executor executor) {
+        this(task::load, () -> {}, executor);
+    }
+
+    private ReaderPublisher(Source<T> source, Runnable stop, Executor executor) {
+        this.source = source;
+        this.stop = stop;
+        this.executor = executor;
+    }
+
+    @Override public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override public void request(long n) {
+                }
+
+                @Override public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("ReaderPublisher can only be subscribed to once"));
+            return;
+        }
+        Demand demand = new Demand();
+        AtomicBoolean terminated = new AtomicBoolean();
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override public void request(long n) {
+                if (n <= 0) {
+                    cancel();
+                    if (terminated.compareAndSet(false, true)) {
+                        subscriber.onError(new IllegalArgumentException("Requested " + n + " items, demand must be positive"));
+                    }
+                    return;
+                }
+                demand.add(n);
+            }
+
+            @Override public void cancel() {
+                if (!demand.isCancelled()) {
+                    demand.cancel();
+                    stop.run();
+                }
+            }
+        });
+        executor.execute(() -> {
+            try {
+                source.load(item -> {
+                    try {
+                        if (!demand.take()) {
+                            throw new UncheckedInterruptedException();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new UncheckedInterruptedException();
+                    }
+                    subscriber.onNext(item);
+                });
+                if (!demand.isCancelled() && terminated.compareAndSet(false, true)) {
+                    subscriber.onComplete();
+                }
+            } catch (Throwable t) {
+                if (!demand.isCancelled() && terminated.compareAndSet(false, true)) {
+                    subscriber.onError(t);
+                }
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface Source<T> {
+
+        void load(Consumer<? super T> accept) throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.flow;
+
+import cubicchunks.converter.lib.convert.ChunkDataWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes chunks with a {@link ChunkDataWriter} in batches. It requests one batch at a time and requests the next one
+ * only after writing it, so there are never more than {@code batchSize} chunks in flight per subscriber.
+ * Writers are thread safe, many subscribers can share one writer. The writer is not closed by the subscriber.
+ */
+public class WriterSubscriber<T> implements Flow.Subscriber<T> {
+
+    private final ChunkDataWriter<T> writer;
+    private final int batchSize;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private Flow.Subscription subscription;
+    private List<T> batch;
+    private long written;
+
+    public WriterSubscriber(ChunkDataWriter<T> writer, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive, but was " + batchSize);
+        }
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Completes when all chunks have been written, or exceptionally when the stream or a write fails.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Returns the number of written chunks, only consistent after completion.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    @Override public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(batchSize);
+    }
+
+    @Override public void onNext(T item) {
+        if (completion.isDone()) {
+            return;
+        }
+        batch.add(item);
+        if (batch.size() >= batchSize && flush()) {
+            subscription.request(batchSize);
+        }
+    }
+
+    @Override public void onError(Throwable throwable) {
+        // what was converted before the failure is still written
+        flush();
+        completion.completeExceptionally(throwable);
+    }
+
+    @Override public void onComplete() {
+        if (flush()) {
+            completion.complete(null);
+        }
+    }
+
+    private boolean flush() {
+        if (batch.isEmpty() || completion.isDone()) {
+            return !completion.isDone();
+        }
+        List<T> toWrite = batch;
+        batch = new ArrayList<>(batchSize);
+        try {
+            writer.acceptBatch(toWrite);
+            written += toWrite.size();
+            return true;
+        } catch (Throwable t) {
+            subscription.cancel();
+            completion.completeExceptionally(t);
+            return false;
+        }
+    }
+}
@@ -23,7 +23,6 @@
  */
 package cubicchunks.converter.lib.convert.io;
 
-import static cubicchunks.converter.lib.util.Utils.interruptibleConsumer;
 import static cubicchunks.regionlib.impl.save.MinecraftSaveSection.MinecraftRegionType.MCA;
 import static java.nio.file.Files.exists;
 
@@ -40,6 +39,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
@@ -80,9 +81,7 @@ public class AnvilChunkReader extends BaseMinecraftReader<AnvilChunkData, Minecr
     }
 
     private void doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
-        for (MinecraftSaveSection save : saves.values()) {
-            save.forAllKeys(interruptibleConsumer(loc -> increment.run()));
-        }
+        countIndexedChunks(getHeaderIndex(d -> getDimensionPath(d, srcDir)), increment);
     }
 
     @Override public void loadChunks(Consumer<? super AnvilChunkData> consumer) throws IOException {
@@ -94,14 +93,31 @@ public class AnvilChunkReader extends BaseMinecraftReader<AnvilChunkData, Minecr
     }
 
     private void doLoadChunks(Consumer<? super AnvilChunkData> consumer) throws IOException, UncheckedInterruptedException {
+        RegionHeaderIndex index = getHeaderIndex(d -> getDimensionPath(d, srcDir));
         for (Map.Entry<Dimension, MinecraftSaveSection> entry : saves.entrySet()) {
             if (Thread.interrupted()) {
                 return;
             }
             MinecraftSaveSection vanillaSave = entry.getValue();
             Dimension d = entry.getKey();
-            vanillaSave.forAllKeys(interruptibleConsumer(mcPos -> consumer.accept(new AnvilChunkData(d, mcPos, vanillaSave.load(mcPos).orElse(null), this.offset))));
+            for (RegionHeaderIndex.Region region : index.getRegions(d)) {
+                loadMappedRegion(region, vanillaSave::load, (mcPos, data) -> consumer.accept(new AnvilChunkData(d, mcPos, data, this.offset)));
+            }
+        }
+    }
+
+    @Override public List<LoadTask<AnvilChunkData>> splitLoading() throws IOException {
+        RegionHeaderIndex index = getHeaderIndex(d -> getDimensionPath(d, srcDir));
+        List<LoadTask<AnvilChunkData>> tasks = new ArrayList<>();
+        for (Map.Entry<Dimension, MinecraftSaveSection> entry : saves.entrySet()) {
+            MinecraftSaveSection vanillaSave = entry.getValue();
+            Dimension d = entry.getKey();
+            for (RegionHeaderIndex.Region region : index.getRegions(d)) {
+                tasks.add(consumer -> loadMappedRegion(region, vanillaSave::load,
+                    (mcPos, data) -> consumer.accept(new AnvilChunkData(d, mcPos, data, this.offset))));
+            }
         }
+        return tasks;
     }
 
     @Override public void stop() {
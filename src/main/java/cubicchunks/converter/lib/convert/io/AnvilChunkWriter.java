@@ -32,6 +32,7 @@ import cubicchunks.converter.lib.convert.ChunkDataWriter;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
 import cubicchunks.converter.lib.convert.data.MultilayerAnvilChunkData;
 import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.impl.MinecraftChunkLocation;
 import cubicchunks.regionlib.impl.save.MinecraftSaveSection;
 
 import java.io.BufferedWriter;
@@ -44,14 +45,17 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkData> {
 
-    private Path dstPath;
-    private Map<Integer, Map<Dimension, MinecraftSaveSection>> saves = new ConcurrentHashMap<>();
+    private final Path dstPath;
+    // saves are only ever added, so once a layer and dimension has been seen the lookup is a plain read
+    private final ConcurrentHashMap<Integer, LayerSaves> layers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<MinecraftSaveSection, RegionLocks> regionLocks = new ConcurrentHashMap<>();
 
     public AnvilChunkWriter(Path dstPath) {
         this.dstPath = dstPath;
@@ -59,27 +63,42 @@ public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkDat
 
     @Override public void accept(MultilayerAnvilChunkData data) throws IOException {
         for (Map.Entry<Integer, AnvilChunkData> entry : data.getWorlds().entrySet()) {
-            int layerY = entry.getKey();
             AnvilChunkData chunk = entry.getValue();
-            Map<Dimension, MinecraftSaveSection> layer = saves.computeIfAbsent(layerY, i -> new HashMap<>());
-            MinecraftSaveSection save = layer.computeIfAbsent(chunk.getDimension(), propagateExceptions(dim -> {
-                Path saveRoot = this.dstPath.resolve(dirName(layerY));
-                Path regionDir = getDimensionPath(entry.getValue().getDimension(), saveRoot);
-                Utils.createDirectories(regionDir);
+            MinecraftSaveSection save = getSave(entry.getKey(), chunk.getDimension());
+            getLocks(save).write(chunk.getPosition(), chunk.getData(), save::save);
+        }
+    }
 
-                File offsetFile = new File(saveRoot.toFile(), "offset.txt");
-                try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(offsetFile), StandardCharsets.UTF_8))) {
-                    writer.write(String.valueOf(layerY << 4));
-                    writer.newLine();
-                } catch (IOException e)  {
-                    e.printStackTrace();
-                    throw new RuntimeException(e);
-                }
+    @Override public void acceptBatch(Collection<MultilayerAnvilChunkData> batch) throws IOException {
+        Map<MinecraftSaveSection, RegionBatch<MinecraftChunkLocation>> bySave = new HashMap<>();
+        for (MultilayerAnvilChunkData data : batch) {
+            for (Map.Entry<Integer, AnvilChunkData> entry : data.getWorlds().entrySet()) {
+                AnvilChunkData chunk = entry.getValue();
+                MinecraftSaveSection save = getSave(entry.getKey(), chunk.getDimension());
+                bySave.computeIfAbsent(save, s -> new RegionBatch<>()).add(chunk.getPosition(), chunk.getData());
+            }
+        }
+        for (Map.Entry<MinecraftSaveSection, RegionBatch<MinecraftChunkLocation>> entry : bySave.entrySet()) {
+            MinecraftSaveSection save = entry.getKey();
+            entry.getValue().write(getLocks(save), save::save);
+        }
+    }
 
-                return MinecraftSaveSection.createAt(regionDir, MCA);
-            }));
-            save.save(chunk.getPosition(), chunk.getData());
+    private RegionLocks getLocks(MinecraftSaveSection save) {
+        RegionLocks locks = regionLocks.get(save);
+        if (locks == null) {
+            locks = regionLocks.computeIfAbsent(save, s -> new RegionLocks());
+        }
+        return locks;
+    }
+
+    private MinecraftSaveSection getSave(int layerY, Dimension dimension) {
+        // ConcurrentHashMap.computeIfAbsent locks the bin even when the value is there, so try a get first
+        LayerSaves layer = layers.get(layerY);
+        if (layer == null) {
+            layer = layers.computeIfAbsent(layerY, propagateExceptions(LayerSaves::new));
         }
+        return layer.getSave(dimension);
     }
 
     static Path getDimensionPath(Dimension d, Path worldDir) {
@@ -100,8 +119,8 @@ public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkDat
 
     @Override public void close() throws Exception {
         boolean exception = false;
-        for (Map<?, ? extends Closeable> saves : this.saves.values()) {
-            for (Closeable save : saves.values()) {
+        for (LayerSaves layer : layers.values()) {
+            for (Closeable save : layer.saves.values()) {
                 try {
                     save.close();
                 } catch (IOException e) {
@@ -115,4 +134,37 @@ public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkDat
             throw new IOException();
         }
     }
+
+    /**
+     * Saves of all dimensions of one world layer. The layer directory and its offset file are created once,
+     * when the layer is first used, and each dimension save is opened exactly once.
+     */
+    private final class LayerSaves {
+
+        private final Path saveRoot;
+        private final ConcurrentHashMap<Dimension, MinecraftSaveSection> saves = new ConcurrentHashMap<>();
+
+        LayerSaves(int layerY) throws IOException {
+            this.saveRoot = dstPath.resolve(dirName(layerY));
+            Utils.createDirectories(saveRoot);
+
+            File offsetFile = new File(saveRoot.toFile(), "offset.txt");
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(offsetFile), StandardCharsets.UTF_8))) {
+                writer.write(String.valueOf(layerY << 4));
+                writer.newLine();
+            }
+        }
+
+        MinecraftSaveSection getSave(Dimension dimension) {
+            MinecraftSaveSection save = saves.get(dimension);
+            if (save != null) {
+                return save;
+            }
+            return saves.computeIfAbsent(dimension, propagateExceptions(dim -> {
+                Path regionDir = getDimensionPath(dim, saveRoot);
+                Utils.createDirectories(regionDir);
+                return MinecraftSaveSection.createAt(regionDir, MCA);
+            }));
+        }
+    }
 }
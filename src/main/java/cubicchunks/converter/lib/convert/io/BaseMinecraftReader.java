@@ -25,30 +25,154 @@ package cubicchunks.converter.lib.convert.io;
 
 import cubicchunks.converter.lib.Dimension;
 import cubicchunks.converter.lib.Dimensions;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataReader;
+import cubicchunks.converter.lib.convert.SourceStats;
+
+import cubicchunks.converter.lib.util.UncheckedInterruptedException;
+import cubicchunks.regionlib.impl.MinecraftChunkLocation;
+import cubicchunks.regionlib.util.CheckedFunction;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public abstract class BaseMinecraftReader<DATA, SAVE extends Closeable> implements ChunkDataReader<DATA> {
+    // threads reading region headers for the header index, 0 reads them in the common fork-join pool
+    public static final String HEADER_SCAN_THREADS = "headerScanThreads";
+
+    private static final int VANILLA_REGION_SIZE = MappedRegionFile.REGION_SIZE;
+
+    protected volatile SourceStats sourceStats;
+    private RegionHeaderIndex headerIndex;
+
     protected final Path srcDir;
     protected final Map<Dimension, SAVE> saves;
+    protected final RegionCache.Slot regionCache = new RegionCache.Slot();
+    // subclasses add their own defaults
+    protected final ConverterConfig config;
 
     public BaseMinecraftReader(Path srcDir, BiFunction<Dimension, Path, SAVE> pathToSave) {
+        this(srcDir, (dim, path, cache) -> pathToSave.apply(dim, path));
+    }
+
+    protected BaseMinecraftReader(Path srcDir, SaveFactory<SAVE> saveFactory) {
         this.srcDir = srcDir;
         this.saves = new ConcurrentHashMap<>();
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put(HEADER_SCAN_THREADS, 0);
+        this.config = new ConverterConfig(defaults);
         for (Dimension d : Dimensions.getDimensions()) {
-            SAVE save = pathToSave.apply(d, srcDir);
+            SAVE save = saveFactory.create(d, srcDir, regionCache);
             if (save != null) {
                 saves.put(d, save);
             }
         }
     }
 
+    @Override public ConverterConfig getConfig() {
+        return config;
+    }
+
+    @Override public void setRegionCache(RegionCache cache) {
+        regionCache.set(cache);
+    }
+
+    @Override public void setSourceStats(SourceStats stats) {
+        this.sourceStats = stats;
+    }
+
+    /**
+     * Returns the header index of the region files of all dimensions of this reader. The first call scans the headers,
+     * other callers wait for that scan instead of reading the headers again.
+     */
+    protected synchronized RegionHeaderIndex getHeaderIndex(Function<Dimension, Path> regionDir) throws IOException {
+        if (headerIndex == null) {
+            Map<Dimension, Path> regionDirs = new HashMap<>();
+            for (Dimension d : saves.keySet()) {
+                regionDirs.put(d, regionDir.apply(d));
+            }
+            headerIndex = RegionHeaderIndex.scan(regionDirs, config.getInt(HEADER_SCAN_THREADS));
+        }
+        return headerIndex;
+    }
+
+    /**
+     * Counts all entries of the header index, and adds the region sizes to source stats, if they are collected.
+     */
+    protected void countIndexedChunks(RegionHeaderIndex index, Runnable increment) {
+        for (int i = 0, count = index.getEntryCount(); i < count; i++) {
+            if (Thread.interrupted()) {
+                throw new UncheckedInterruptedException();
+            }
+            increment.run();
+        }
+        SourceStats stats = this.sourceStats;
+        if (stats != null) {
+            index.addTo(stats);
+        }
+    }
+
+    /**
+     * Reads the beginning of a file into the buffer, and flips it. Reads less when the file is shorter than the buffer.
+     */
+    protected static void readHeader(Path file, ByteBuffer header) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+        }
+        header.flip();
+    }
+
+    /**
+     * Loads all indexed chunks of a vanilla region file through a memory mapping of the file, without copying chunk data to the heap.
+     * Chunks the mapping can't read, like ones stored in external .mcc files, are loaded using {@code fallback}.
+     */
+    protected static void loadMappedRegion(RegionHeaderIndex.Region indexed,
+        CheckedFunction<MinecraftChunkLocation, Optional<ByteBuffer>, IOException> fallback,
+        BiConsumer<MinecraftChunkLocation, ByteBuffer> consumer) throws IOException {
+
+        MappedRegionFile region = MappedRegionFile.open(indexed.file);
+        if (region == null) {
+            return;
+        }
+        int regionX = indexed.regionX;
+        int regionZ = indexed.regionZ;
+        for (int z = 0; z < VANILLA_REGION_SIZE; z++) {
+            for (int x = 0; x < VANILLA_REGION_SIZE; x++) {
+                int index = MappedRegionFile.index(x, z);
+                if (!indexed.hasEntry(index) || !region.hasEntry(index)) {
+                    continue;
+                }
+                if (Thread.interrupted()) {
+                    throw new UncheckedInterruptedException();
+                }
+                MinecraftChunkLocation pos = new MinecraftChunkLocation(regionX * VANILLA_REGION_SIZE + x, regionZ * VANILLA_REGION_SIZE + z, "mca");
+                ByteBuffer data = region.read(index);
+                if (data == null) {
+                    Optional<ByteBuffer> loaded = fallback.apply(pos);
+                    if (!loaded.isPresent()) {
+                        continue;
+                    }
+                    data = loaded.get();
+                }
+                consumer.accept(pos, data);
+            }
+        }
+    }
+
     @Override public void close() throws Exception {
         boolean exception = false;
         for (SAVE save : saves.values()) {
@@ -63,4 +187,13 @@ public abstract class BaseMinecraftReader<DATA, SAVE extends Closeable> implemen
             throw new IOException();
         }
     }
+
+    @FunctionalInterface
+    protected interface SaveFactory<SAVE> {
+
+        /**
+         * @param regionCache region cache of the reader, only resolved when regions are first used
+         */
+        SAVE create(Dimension dimension, Path srcDir, Supplier<RegionCache> regionCache);
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import cubicchunks.regionlib.api.region.IRegion;
+import cubicchunks.regionlib.api.region.IRegionProvider;
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+import cubicchunks.regionlib.util.CheckedBiConsumer;
+import cubicchunks.regionlib.util.CheckedConsumer;
+import cubicchunks.regionlib.util.CheckedFunction;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Keeps regions of the source provider open in a {@link RegionCache}. A region is pinned in the cache
+ * while it's being read or written, and access to each region is serialized.
+ */
+public class CachingRegionProvider<K extends IKey<K>> implements IRegionProvider<K> {
+
+    private final IRegionProvider<K> source;
+    private final Supplier<RegionCache> cacheSupplier;
+    private volatile RegionCache cache;
+
+    /**
+     * @param cache supplies the cache when a region is first used, it's the same cache for the lifetime of the provider after that
+     */
+    public CachingRegionProvider(IRegionProvider<K> source, Supplier<RegionCache> cache) {
+        this.source = source;
+        this.cacheSupplier = cache;
+    }
+
+    private RegionCache cache() {
+        RegionCache cache = this.cache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = this.cache;
+                if (cache == null) {
+                    cache = cacheSupplier.get();
+                    this.cache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    @Override public void forRegion(K location, CheckedConsumer<? super IRegion<K>, IOException> consumer) throws IOException {
+        RegionCache cache = cache();
+        RegionCache.Handle<K> handle = cache.acquire(this, location.getRegionKey(), () -> Optional.of(source.getRegion(location)));
+        try {
+            handle.lock.lock();
+            try {
+                consumer.accept(handle.getRegion());
+            } finally {
+                handle.lock.unlock();
+            }
+        } finally {
+            cache.release(handle);
+        }
+    }
+
+    @Override public <R> Optional<R> fromExistingRegion(K location, CheckedFunction<? super IRegion<K>, R, IOException> func) throws IOException {
+        RegionCache cache = cache();
+        RegionCache.Handle<K> handle = cache.acquire(this, location.getRegionKey(), () -> source.getExistingRegion(location));
+        if (handle == null) {
+            return Optional.empty();
+        }
+        try {
+            handle.lock.lock();
+            try {
+                return Optional.ofNullable(func.apply(handle.getRegion()));
+            } finally {
+                handle.lock.unlock();
+            }
+        } finally {
+            cache.release(handle);
+        }
+    }
+
+    // returned regions are owned by the caller, they are not cached
+
+    @Override public IRegion<K> getRegion(K location) throws IOException {
+        return source.getRegion(location);
+    }
+
+    @Override public Optional<IRegion<K>> getExistingRegion(K location) throws IOException {
+        return source.getExistingRegion(location);
+    }
+
+    @Override public void forAllRegions(CheckedBiConsumer<? super RegionKey, ? super IRegion<K>, IOException> consumer) throws IOException {
+        source.forAllRegions(consumer);
+    }
+
+    @Override public void close() throws IOException {
+        try {
+            RegionCache cache = this.cache;
+            if (cache != null) {
+                cache.closeAll(this);
+            }
+        } finally {
+            source.close();
+        }
+    }
+}
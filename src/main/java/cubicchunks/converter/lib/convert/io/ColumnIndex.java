@@ -0,0 +1,177 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.cursors.LongCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cube Y coordinates of columns, without an object per column. Columns are keyed by packed x/z coordinates
+ * in a primitive open addressing map, which points to the last added cube of the column. Cube Y coordinates
+ * of all columns are stored in one shared arena, each one linked to the previously added cube of the same column.
+ *
+ * Not thread safe, it's expected to be built by one thread and only read after that.
+ */
+final class ColumnIndex {
+
+    private static final int NONE = -1;
+
+    private final LongIntHashMap lastCube = new LongIntHashMap();
+    private final IntArrayList cubeY = new IntArrayList();
+    private final IntArrayList previousCube = new IntArrayList();
+
+    static long pack(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    static int unpackX(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int unpackZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Returns a value that orders packed keys by x, and then by z when compared as signed longs.
+     */
+    static long sortOrder(long key) {
+        // z is in the low bits, flip its sign so that negative z sorts before positive
+        return key ^ 0x80000000L;
+    }
+
+    /**
+     * Interleaves bits of the lowest 16 bits of x and z, giving Z-order curve position.
+     */
+    static int morton(int x, int z) {
+        return spreadBits(x) | (spreadBits(z) << 1);
+    }
+
+    private static int spreadBits(int v) {
+        v &= 0xFFFF;
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+
+    /**
+     * Adds a cube, and returns true if it's the first cube of that column.
+     */
+    boolean add(int x, int y, int z) {
+        long key = pack(x, z);
+        int cube = cubeY.size();
+        cubeY.add(y);
+        int slot = lastCube.indexOf(key);
+        if (lastCube.indexExists(slot)) {
+            previousCube.add(lastCube.indexReplace(slot, cube));
+            return false;
+        }
+        previousCube.add(NONE);
+        lastCube.indexInsert(slot, key, cube);
+        return true;
+    }
+
+    int getColumnCount() {
+        return lastCube.size();
+    }
+
+    /**
+     * Returns packed keys of all columns, grouped by regions of 2^regionBits by 2^regionBits columns. Regions are sorted
+     * by position, and columns of each region are in Morton order, so that consecutive columns are close to each other in region files.
+     */
+    List<long[]> getColumnsByRegion(int regionBits) {
+        LongObjectHashMap<LongArrayList> regions = new LongObjectHashMap<>();
+        for (LongCursor column : lastCube.keys()) {
+            long regionKey = pack(unpackX(column.value) >> regionBits, unpackZ(column.value) >> regionBits);
+            LongArrayList regionColumns = regions.get(regionKey);
+            if (regionColumns == null) {
+                regionColumns = new LongArrayList();
+                regions.put(regionKey, regionColumns);
+            }
+            regionColumns.add(column.value);
+        }
+        long[] regionKeys = regions.keys().toArray();
+        for (int i = 0; i < regionKeys.length; i++) {
+            regionKeys[i] = sortOrder(regionKeys[i]);
+        }
+        Arrays.sort(regionKeys);
+
+        int localMask = (1 << regionBits) - 1;
+        List<long[]> sorted = new ArrayList<>(regionKeys.length);
+        for (long regionOrder : regionKeys) {
+            long[] columns = regions.get(sortOrder(regionOrder)).toArray();
+            // morton code in the high bits, index in the low bits
+            long[] order = new long[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                int morton = morton(unpackX(columns[i]) & localMask, unpackZ(columns[i]) & localMask);
+                order[i] = ((long) morton << 32) | i;
+            }
+            Arrays.sort(order);
+            long[] regionColumns = new long[columns.length];
+            for (int i = 0; i < order.length; i++) {
+                regionColumns[i] = columns[(int) order[i]];
+            }
+            sorted.add(regionColumns);
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns packed keys of all columns in the order of {@link #getColumnsByRegion(int)}.
+     */
+    long[] getColumnsSorted(int regionBits) {
+        long[] all = new long[getColumnCount()];
+        int i = 0;
+        for (long[] region : getColumnsByRegion(regionBits)) {
+            System.arraycopy(region, 0, all, i, region.length);
+            i += region.length;
+        }
+        return all;
+    }
+
+    /**
+     * Returns cube Y coordinates of the given column, empty if the column doesn't exist.
+     */
+    int[] getCubeY(long column) {
+        int last = lastCube.getOrDefault(column, NONE);
+        int count = 0;
+        for (int cube = last; cube != NONE; cube = previousCube.get(cube)) {
+            count++;
+        }
+        int[] ys = new int[count];
+        for (int cube = last; cube != NONE; cube = previousCube.get(cube)) {
+            ys[--count] = cubeY.get(cube);
+        }
+        return ys;
+    }
+}
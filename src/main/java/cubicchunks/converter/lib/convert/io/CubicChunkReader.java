@@ -23,34 +23,59 @@
  */
 package cubicchunks.converter.lib.convert.io;
 
-import static cubicchunks.converter.lib.util.Utils.interruptibleConsumer;
+import static cubicchunks.converter.lib.util.Utils.propagateExceptions;
 
-import com.carrotsearch.hppc.IntArrayList;
-import com.carrotsearch.hppc.cursors.IntCursor;
 import cubicchunks.converter.lib.Dimension;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.util.UncheckedInterruptedException;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData, SaveCubeColumns> {
 
-    private final CompletableFuture<ChunkList> chunkList = new CompletableFuture<>();
+    private static final Pattern REGION_3D_NAME = Pattern.compile("(-?\\d+)\\.(-?\\d+)\\.(-?\\d+)\\.3dr");
+    private static final int REGION_3D_BITS = 4;
+    private static final int REGION_3D_ENTRIES = 16 * 16 * 16;
+    // region3d groups in one region2d
+    private static final int GROUPS_2D_BITS = 1;
+    private static final EntryLocation3D.Provider KEYS_3D = new EntryLocation3D.Provider();
+
+    private static final int MAX_CACHED_COLUMN_INDEXES = 64;
+
     private final Thread loadThread;
 
+    // for loading single columns, region3d files and column indexes of region groups
+    private final Map<Dimension, Map<Long, List<Path>>> regionFiles = new ConcurrentHashMap<>();
+    private final Map<ColumnGroupKey, ColumnIndex> columnIndexes = new LinkedHashMap<>(16, 0.75f, true);
+    // incremented by refresh, indexes read from headers before a refresh are not cached. Guarded by columnIndexes
+    private long indexGeneration;
+
     public CubicChunkReader(Path srcDir) {
-        super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path)) : null);
+        super(srcDir, (dim, path, cache) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path), cache) : null);
         loadThread = Thread.currentThread();
     }
 
@@ -63,95 +88,265 @@ public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData,
 
     @Override public void countInputChunks(Runnable increment) throws IOException {
         try {
-            Map<Dimension, Map<EntryLocation2D, IntArrayList>> dimensions = doCountChunks(increment);
-            chunkList.complete(new ChunkList(dimensions));
+            doCountChunks(increment);
         } catch (UncheckedInterruptedException ex) {
-            chunkList.complete(null);
+            // return
         }
     }
 
-    private Map<Dimension, Map<EntryLocation2D, IntArrayList>> doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
-        Map<Dimension, Map<EntryLocation2D, IntArrayList>> dimensions = new ConcurrentHashMap<>();
+    private void doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
+        for (Dimension dim : saves.keySet()) {
+            for (List<Path> regionColumn : getRegionColumns(getDimensionPath(dim, srcDir))) {
+                if (Thread.interrupted()) {
+                    throw new UncheckedInterruptedException();
+                }
+                int columns = readColumns(regionColumn).getColumnCount();
+                for (int i = 0; i < columns; i++) {
+                    increment.run();
+                }
+            }
+        }
+    }
+
+    @Override public void loadChunks(Consumer<? super CubicChunksColumnData> consumer) throws IOException {
         for (Map.Entry<Dimension, SaveCubeColumns> entry : saves.entrySet()) {
+            Dimension dim = entry.getKey();
             SaveCubeColumns save = entry.getValue();
+            for (List<Path> regionColumn : getRegionColumns(getDimensionPath(dim, srcDir))) {
+                if (!loadRegionColumn(dim, save, regionColumn, consumer)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override public List<LoadTask<CubicChunksColumnData>> splitLoading() throws IOException {
+        List<LoadTask<CubicChunksColumnData>> tasks = new ArrayList<>();
+        for (Map.Entry<Dimension, SaveCubeColumns> entry : saves.entrySet()) {
             Dimension dim = entry.getKey();
-            Map<EntryLocation2D, IntArrayList> chunks = dimensions.computeIfAbsent(dim, p -> new ConcurrentHashMap<>());
-            save.getSaveSection3D().forAllKeys(interruptibleConsumer(loc -> {
+            SaveCubeColumns save = entry.getValue();
+            for (List<Path> regionColumn : getRegionColumns(getDimensionPath(dim, srcDir))) {
+                tasks.add(consumer -> loadRegionColumn(dim, save, regionColumn, consumer));
+            }
+        }
+        return tasks;
+    }
 
-                EntryLocation2D loc2d = new EntryLocation2D(loc.getEntryX(), loc.getEntryZ());
-                chunks.computeIfAbsent(loc2d, l -> {
-                    increment.run();
-                    return new IntArrayList();
-                }).add(loc.getEntryY());
-            }));
+    /**
+     * Loads a single column with its cubes from minCubeY to maxCubeY, inclusive. Region headers needed to find the cubes
+     * are cached, call {@link #refresh()} or {@link #refresh(Dimension, int, int)} when the world has been modified since.
+     *
+     * @return the column, or null if it has neither column data nor cubes in the range
+     */
+    public CubicChunksColumnData loadColumn(Dimension dim, int x, int z, int minCubeY, int maxCubeY) throws IOException {
+        SaveCubeColumns save = saves.get(dim);
+        if (save == null) {
+            return null;
+        }
+        int[] allY = getColumnIndex(dim, x >> REGION_3D_BITS, z >> REGION_3D_BITS).getCubeY(ColumnIndex.pack(x, z));
+        int[] yCoords = Arrays.stream(allY).filter(y -> y >= minCubeY && y <= maxCubeY).toArray();
+        EntryLocation2D pos = new EntryLocation2D(x, z);
+        if (yCoords.length == 0 && !save.load(pos).isPresent()) {
+            return null;
         }
-        return dimensions;
+        CubicChunksColumnData column = loadColumn(dim, save, pos, yCoords);
+        if (column == null) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading column " + pos + " in dimension " + dim);
+        }
+        return column;
     }
 
-    @Override public void loadChunks(Consumer<? super CubicChunksColumnData> consumer) throws IOException, InterruptedException {
-        try {
-            ChunkList list = chunkList.get();
-            if (list == null) {
-                return; // counting interrupted
-            }
-            doLoadChunks(consumer, list);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+    /**
+     * Forgets cached region headers used by {@link #loadColumn(Dimension, int, int, int, int)},
+     * and closes all regions of the region cache.
+     */
+    public void refresh() {
+        regionFiles.clear();
+        synchronized (columnIndexes) {
+            indexGeneration++;
+            columnIndexes.clear();
         }
+        regionCache.get().invalidateAll();
     }
 
-    private void doLoadChunks(Consumer<? super CubicChunksColumnData> consumer, ChunkList list) throws IOException {
-        for (Map.Entry<Dimension, Map<EntryLocation2D, IntArrayList>> dimEntry : list.getChunks().entrySet()) {
-            if (Thread.interrupted()) {
-                return;
+    /**
+     * Like {@link #refresh()}, but only for the regions the given column is in. Regions with the same name
+     * in other dimensions are closed as well.
+     */
+    public void refresh(Dimension dim, int x, int z) {
+        int regionX = x >> REGION_3D_BITS;
+        int regionZ = z >> REGION_3D_BITS;
+        // region3d files may have been added to the group
+        regionFiles.remove(dim);
+        synchronized (columnIndexes) {
+            indexGeneration++;
+            columnIndexes.remove(new ColumnGroupKey(dim, ColumnIndex.pack(regionX, regionZ)));
+        }
+        String region2d = new EntryLocation2D(x, z).getRegionKey().getName();
+        String x3d = String.valueOf(regionX);
+        String z3d = String.valueOf(regionZ);
+        regionCache.get().invalidate(name -> {
+            if (name.equals(region2d)) {
+                return true;
             }
-            Dimension dim = dimEntry.getKey();
-            SaveCubeColumns save = saves.get(dim);
-            for (Map.Entry<EntryLocation2D, IntArrayList> chunksEntry : dimEntry.getValue().entrySet()) {
-                if (Thread.interrupted()) {
-                    return;
+            Matcher match = REGION_3D_NAME.matcher(name);
+            return match.matches() && match.group(1).equals(x3d) && match.group(3).equals(z3d);
+        });
+    }
+
+    private ColumnIndex getColumnIndex(Dimension dim, int regionX, int regionZ) throws IOException {
+        ColumnGroupKey key = new ColumnGroupKey(dim, ColumnIndex.pack(regionX, regionZ));
+        long generation;
+        synchronized (columnIndexes) {
+            ColumnIndex index = columnIndexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            generation = indexGeneration;
+        }
+        Map<Long, List<Path>> files = regionFiles.get(dim);
+        if (files == null) {
+            files = regionFiles.computeIfAbsent(dim, propagateExceptions(d -> getRegionColumnMap(getDimensionPath(d, srcDir))));
+        }
+        // two threads may read the same headers, which is harmless
+        ColumnIndex index = readColumns(files.getOrDefault(key.group, Collections.emptyList()));
+        synchronized (columnIndexes) {
+            if (generation != indexGeneration) {
+                // the headers may have been read before the world was modified
+                return index;
+            }
+            columnIndexes.put(key, index);
+            Iterator<ColumnIndex> it = columnIndexes.values().iterator();
+            while (columnIndexes.size() > MAX_CACHED_COLUMN_INDEXES) {
+                it.next();
+                it.remove();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns region3d files of the dimension, grouped by horizontal region position.
+     * Each group contains all cubes of the 16x16 columns above each other, so columns can be assembled one group at a time.
+     * Groups are sorted by region2d they are in, and in Morton order within it.
+     */
+    private static Collection<List<Path>> getRegionColumns(Path dimensionDir) throws IOException {
+        return getRegionColumnMap(dimensionDir).values();
+    }
+
+    private static Map<Long, List<Path>> getRegionColumnMap(Path dimensionDir) throws IOException {
+        Map<Long, List<Path>> regionColumns = new TreeMap<>(Comparator
+            .comparingLong((Long key) -> ColumnIndex.sortOrder(ColumnIndex.pack(
+                ColumnIndex.unpackX(key) >> GROUPS_2D_BITS, ColumnIndex.unpackZ(key) >> GROUPS_2D_BITS)))
+            .thenComparingInt(key -> ColumnIndex.morton(ColumnIndex.unpackX(key), ColumnIndex.unpackZ(key))));
+        Path regionDir = dimensionDir.resolve("region3d");
+        if (!Files.isDirectory(regionDir)) {
+            return regionColumns;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(regionDir)) {
+            for (Path file : files) {
+                Matcher matcher = REGION_3D_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
                 }
-                EntryLocation2D pos2d = chunksEntry.getKey();
-                IntArrayList yCoords = chunksEntry.getValue();
-                ByteBuffer column = save.load(pos2d).orElse(null);
-                Map<Integer, ByteBuffer> cubes = new ConcurrentHashMap<>();
-                for (IntCursor yCursor : yCoords) {
-                    if (Thread.interrupted()) {
-                        return;
-                    }
-                    int y = yCursor.value;
-                    ByteBuffer cube = save.load(new EntryLocation3D(pos2d.getEntryX(), y, pos2d.getEntryZ())).orElseThrow(
-                        () -> new IllegalStateException("Expected cube at " + pos2d + " at y=" + y + " in dimension " + dim));
-                    cubes.put(y, cube);
+                int x = Integer.parseInt(matcher.group(1));
+                int z = Integer.parseInt(matcher.group(3));
+                regionColumns.computeIfAbsent(ColumnIndex.pack(x, z), k -> new ArrayList<>()).add(file);
+            }
+        }
+        return regionColumns;
+    }
+
+    /**
+     * Reads headers of region3d files of one group, and returns cube y coordinates of all columns in it.
+     */
+    private static ColumnIndex readColumns(List<Path> regionColumn) throws IOException {
+        ColumnIndex columns = new ColumnIndex();
+        for (Path file : regionColumn) {
+            RegionKey regionKey = new RegionKey(file.getFileName().toString());
+            ByteBuffer header = ByteBuffer.allocate(REGION_3D_ENTRIES * Integer.BYTES);
+            readHeader(file, header);
+            for (int id = 0; id < header.limit() / Integer.BYTES; id++) {
+                if (header.getInt(id * Integer.BYTES) == 0) {
+                    continue;
                 }
-                CubicChunksColumnData data = new CubicChunksColumnData(dim, pos2d, column, cubes);
-                consumer.accept(data);
+                EntryLocation3D loc = KEYS_3D.fromRegionAndId(regionKey, id);
+                columns.add(loc.getEntryX(), loc.getEntryY(), loc.getEntryZ());
+            }
+        }
+        return columns;
+    }
+
+    // returns false if interrupted
+    private boolean loadRegionColumn(Dimension dim, SaveCubeColumns save, List<Path> regionColumn,
+        Consumer<? super CubicChunksColumnData> consumer) throws IOException {
+
+        ColumnIndex columns = readColumns(regionColumn);
+        for (long column : columns.getColumnsSorted(REGION_3D_BITS)) {
+            EntryLocation2D pos = new EntryLocation2D(ColumnIndex.unpackX(column), ColumnIndex.unpackZ(column));
+            CubicChunksColumnData data = loadColumn(dim, save, pos, columns.getCubeY(column));
+            if (data == null) {
+                return false;
+            }
+            consumer.accept(data);
+        }
+        return true;
+    }
+
+    // returns null if interrupted
+    private CubicChunksColumnData loadColumn(Dimension dim, SaveCubeColumns save, EntryLocation2D pos2d, int[] yCoords) throws IOException {
+        if (Thread.interrupted()) {
+            return null;
+        }
+        ByteBuffer column = save.load(pos2d).orElse(null);
+        Map<Integer, ByteBuffer> cubes = new ConcurrentHashMap<>();
+        for (int y : yCoords) {
+            if (Thread.interrupted()) {
+                return null;
             }
+            ByteBuffer cube = save.load(new EntryLocation3D(pos2d.getEntryX(), y, pos2d.getEntryZ())).orElseThrow(
+                () -> new IllegalStateException("Expected cube at " + pos2d + " at y=" + y + " in dimension " + dim));
+            cubes.put(y, cube);
         }
+        return new CubicChunksColumnData(dim, pos2d, column, cubes);
     }
 
     @Override public void stop() {
         loadThread.interrupt();
     }
 
-    private static SaveCubeColumns createSave(Path path) {
+    private static SaveCubeColumns createSave(Path path, Supplier<RegionCache> cache) {
         try {
-            return SaveCubeColumns.create(path);
+            return CubicChunksSaves.create(path, cache);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static class ChunkList {
+    private static final class ColumnGroupKey {
 
-        private final Map<Dimension, Map<EntryLocation2D, IntArrayList>> chunks;
+        final Dimension dimension;
+        final long group;
 
-        private ChunkList(Map<Dimension, Map<EntryLocation2D, IntArrayList>> chunks) {
-            this.chunks = chunks;
+        ColumnGroupKey(Dimension dimension, long group) {
+            this.dimension = dimension;
+            this.group = group;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ColumnGroupKey)) {
+                return false;
+            }
+            ColumnGroupKey that = (ColumnGroupKey) o;
+            return group == that.group && dimension.equals(that.dimension);
         }
 
-        Map<Dimension, Map<EntryLocation2D, IntArrayList>> getChunks() {
-            return chunks;
+        @Override public int hashCode() {
+            return 31 * dimension.hashCode() + Long.hashCode(group);
         }
     }
 }
@@ -26,7 +26,10 @@ package cubicchunks.converter.lib.convert.io;
 import cubicchunks.converter.lib.Dimension;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.ChunkDataWriter;
+import cubicchunks.converter.lib.convert.PreallocationMode;
+import cubicchunks.converter.lib.convert.SourceStats;
 import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
@@ -34,35 +37,135 @@ import cubicchunks.regionlib.impl.SaveCubeColumns;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class CubicChunkWriter implements ChunkDataWriter<CubicChunksColumnData> {
 
+    private static final int SECTOR_SIZE = 512;
+    private static final int REGION_2D_ENTRIES = 32 * 32;
+    private static final int REGION_3D_ENTRIES = 16 * 16 * 16;
+    private static final int REGION_3D_COLUMNS = 16 * 16;
+    // vanilla columns usually have about half of their 16 sections non-empty
+    private static final int EXPECTED_CUBES_PER_COLUMN = 8;
+    // input regions counted before the partial statistics are trusted for an estimate
+    private static final int MIN_SAMPLE_REGIONS = 4;
+
     private Path dstPath;
     private Map<Dimension, SaveCubeColumns> saves = new ConcurrentHashMap<>();
+    private final RegionCache.Slot regionCache = new RegionCache.Slot();
+    private final Map<Object, RegionLocks> regionLocks = new ConcurrentHashMap<>();
+
+    private volatile SourceStats sourceStats;
+    private volatile RegionPreallocator regions2d;
+    private volatile RegionPreallocator regions3d;
 
     public CubicChunkWriter(Path dstPath) {
         this.dstPath = dstPath;
     }
 
-    @Override public void accept(CubicChunksColumnData data) throws IOException {
-        SaveCubeColumns save = saves.computeIfAbsent(data.getDimension(), dim -> {
+    private SaveCubeColumns getSave(Dimension dimension) {
+        return saves.computeIfAbsent(dimension, dim -> {
             try {
-                return SaveCubeColumns.create(dstPath.resolve(dim.getDirectory()));
+                return CubicChunksSaves.create(dstPath.resolve(dim.getDirectory()), regionCache);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         });
+    }
+
+    @Override public void setRegionCache(RegionCache cache) {
+        regionCache.set(cache);
+    }
+
+    @Override public void setPreallocation(SourceStats stats, PreallocationMode mode) {
+        if (mode == PreallocationMode.NONE) {
+            return;
+        }
+        this.sourceStats = stats;
+        this.regions2d = new RegionPreallocator(mode, REGION_2D_ENTRIES, SECTOR_SIZE);
+        this.regions3d = new RegionPreallocator(mode, REGION_3D_ENTRIES, SECTOR_SIZE);
+    }
+
+    // counting runs alongside the conversion, so until it's done the estimate comes from the regions counted so far
+    private boolean canPreallocate() {
+        SourceStats stats = this.sourceStats;
+        return stats != null && (stats.isComplete() || stats.getRegions() >= MIN_SAMPLE_REGIONS) && stats.getEntries() > 0;
+    }
+
+    private void preallocate2d(Dimension dim, EntryLocation2D pos) {
+        if (!canPreallocate()) {
+            return;
+        }
+        double columns = REGION_2D_ENTRIES * sourceStats.getFillRatio();
+        // column data is small, one sector each
+        regions2d.ensureAllocated(regionFile(dim, "region2d", pos.getRegionKey()), columns, columns * SECTOR_SIZE / 2);
+    }
+
+    private void preallocate3d(Dimension dim, EntryLocation3D pos) {
+        if (!canPreallocate()) {
+            return;
+        }
+        double columns = REGION_3D_COLUMNS * sourceStats.getFillRatio();
+        regions3d.ensureAllocated(regionFile(dim, "region3d", pos.getRegionKey()),
+            columns * EXPECTED_CUBES_PER_COLUMN, columns * sourceStats.getAverageEntryBytes());
+    }
+
+    private Path regionFile(Dimension dim, String regionDir, RegionKey key) {
+        return dstPath.resolve(dim.getDirectory()).resolve(regionDir).resolve(key.getName());
+    }
+
+    @Override public void accept(CubicChunksColumnData data) throws IOException {
+        SaveCubeColumns save = getSave(data.getDimension());
         EntryLocation2D pos = data.getPosition();
         if (data.getColumnData() != null) {
-            save.save2d(pos, data.getColumnData());
+            preallocate2d(data.getDimension(), pos);
+            getLocks(save.getSaveSection2D()).write(pos, data.getColumnData(), save::save2d);
         }
         for (Map.Entry<Integer, ByteBuffer> entry : data.getCubeData().entrySet()) {
-            save.save3d(new EntryLocation3D(pos.getEntryX(), entry.getKey(), pos.getEntryZ()), entry.getValue());
+            EntryLocation3D cubePos = new EntryLocation3D(pos.getEntryX(), entry.getKey(), pos.getEntryZ());
+            preallocate3d(data.getDimension(), cubePos);
+            getLocks(save.getSaveSection3D()).write(cubePos, entry.getValue(), save::save3d);
+        }
+    }
+
+    @Override public void acceptBatch(Collection<CubicChunksColumnData> batch) throws IOException {
+        Map<Dimension, RegionBatch<EntryLocation2D>> columns = new HashMap<>();
+        Map<Dimension, RegionBatch<EntryLocation3D>> cubes = new HashMap<>();
+        for (CubicChunksColumnData data : batch) {
+            EntryLocation2D pos = data.getPosition();
+            if (data.getColumnData() != null) {
+                preallocate2d(data.getDimension(), pos);
+                columns.computeIfAbsent(data.getDimension(), d -> new RegionBatch<>()).add(pos, data.getColumnData());
+            }
+            RegionBatch<EntryLocation3D> dimCubes = cubes.computeIfAbsent(data.getDimension(), d -> new RegionBatch<>());
+            for (Map.Entry<Integer, ByteBuffer> entry : data.getCubeData().entrySet()) {
+                EntryLocation3D cubePos = new EntryLocation3D(pos.getEntryX(), entry.getKey(), pos.getEntryZ());
+                preallocate3d(data.getDimension(), cubePos);
+                dimCubes.add(cubePos, entry.getValue());
+            }
+        }
+        for (Map.Entry<Dimension, RegionBatch<EntryLocation2D>> entry : columns.entrySet()) {
+            SaveCubeColumns save = getSave(entry.getKey());
+            entry.getValue().write(getLocks(save.getSaveSection2D()), save::save2d);
+        }
+        for (Map.Entry<Dimension, RegionBatch<EntryLocation3D>> entry : cubes.entrySet()) {
+            SaveCubeColumns save = getSave(entry.getKey());
+            entry.getValue().write(getLocks(save.getSaveSection3D()), save::save3d);
         }
     }
 
+    // keyed by the 2d or 3d save section instance
+    private RegionLocks getLocks(Object saveSection) {
+        RegionLocks locks = regionLocks.get(saveSection);
+        if (locks == null) {
+            locks = regionLocks.computeIfAbsent(saveSection, s -> new RegionLocks());
+        }
+        return locks;
+    }
+
     @Override public void discardData() throws IOException {
         Utils.rm(dstPath);
     }
@@ -77,6 +180,15 @@ public class CubicChunkWriter implements ChunkDataWriter<CubicChunksColumnData>
                 exception = true;
             }
         }
+        if (regions2d != null) {
+            try {
+                regions2d.trimAll();
+                regions3d.trimAll();
+            } catch (IOException e) {
+                e.printStackTrace();
+                exception = true;
+            }
+        }
         if (exception) {
             throw new IOException();
         }
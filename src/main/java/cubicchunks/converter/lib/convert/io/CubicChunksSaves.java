@@ -0,0 +1,88 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.api.region.IRegionProvider;
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.impl.SaveCubeColumns;
+import cubicchunks.regionlib.impl.save.SaveSection2D;
+import cubicchunks.regionlib.impl.save.SaveSection3D;
+import cubicchunks.regionlib.lib.ExtRegion;
+import cubicchunks.regionlib.lib.Region;
+import cubicchunks.regionlib.lib.provider.SimpleRegionProvider;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.function.Supplier;
+
+/**
+ * Creates cubic chunks saves laid out the same way as {@link SaveCubeColumns#create(Path)},
+ * but with region handles kept in the given {@link RegionCache}.
+ */
+final class CubicChunksSaves {
+
+    private static final int SECTOR_SIZE = 512;
+
+    private CubicChunksSaves() {
+        throw new Error();
+    }
+
+    static SaveCubeColumns create(Path directory, Supplier<RegionCache> cache) throws IOException {
+        Path part2d = directory.resolve("region2d");
+        Utils.createDirectories(part2d);
+        Path part3d = directory.resolve("region3d");
+        Utils.createDirectories(part3d);
+
+        SaveSection2D section2d = new SaveSection2D(
+            cached(new SimpleRegionProvider<>(new EntryLocation2D.Provider(), part2d, (keyProvider, regionKey) ->
+                new Region.Builder<EntryLocation2D>()
+                    .setDirectory(part2d)
+                    .setSectorSize(SECTOR_SIZE)
+                    .setKeyProvider(keyProvider)
+                    .setRegionKey(regionKey)
+                    .build()), cache),
+            // entries too big for a region are stored in separate files
+            cached(new SimpleRegionProvider<>(new EntryLocation2D.Provider(), part2d, (keyProvider, regionKey) ->
+                new ExtRegion<>(part2d, Collections.emptyList(), keyProvider, regionKey)), cache));
+        SaveSection3D section3d = new SaveSection3D(
+            cached(new SimpleRegionProvider<>(new EntryLocation3D.Provider(), part3d, (keyProvider, regionKey) ->
+                new Region.Builder<EntryLocation3D>()
+                    .setDirectory(part3d)
+                    .setSectorSize(SECTOR_SIZE)
+                    .setKeyProvider(keyProvider)
+                    .setRegionKey(regionKey)
+                    .build()), cache),
+            cached(new SimpleRegionProvider<>(new EntryLocation3D.Provider(), part3d, (keyProvider, regionKey) ->
+                new ExtRegion<>(part3d, Collections.emptyList(), keyProvider, regionKey)), cache));
+        return new SaveCubeColumns(section2d, section3d);
+    }
+
+    private static <K extends IKey<K>> IRegionProvider<K> cached(IRegionProvider<K> provider, Supplier<RegionCache> cache) {
+        return new CachingRegionProvider<>(provider, cache);
+    }
+}
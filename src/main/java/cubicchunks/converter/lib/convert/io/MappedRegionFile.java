@@ -0,0 +1,99 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of a vanilla .mca region file, mapped into memory once. Chunk data is returned as slices of the mapping,
+ * in the same form as {@code MinecraftSaveSection.load}: the compression type byte followed by compressed data.
+ */
+class MappedRegionFile {
+
+    static final int REGION_SIZE = 32;
+    static final int ENTRIES = REGION_SIZE * REGION_SIZE;
+    private static final int SECTOR_SIZE = 4096;
+    // location table and timestamps
+    private static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+    // chunk data is stored in a separate .mcc file
+    private static final int EXTERNAL_FLAG = 0x80;
+
+    private final MappedByteBuffer data;
+
+    private MappedRegionFile(MappedByteBuffer data) {
+        this.data = data;
+    }
+
+    /**
+     * Maps the given file, or returns null if it's too small to contain a region header.
+     */
+    static MappedRegionFile open(Path file) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            return new MappedRegionFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    static int index(int localX, int localZ) {
+        return localX + localZ * REGION_SIZE;
+    }
+
+    boolean hasEntry(int index) {
+        return data.getInt(index * Integer.BYTES) != 0;
+    }
+
+    /**
+     * Returns data of the given entry, or null if it has to be read by regionlib instead,
+     * because it's stored externally or the header doesn't match the file.
+     */
+    ByteBuffer read(int index) {
+        int loc = data.getInt(index * Integer.BYTES);
+        long offset = (long) (loc >>> 8) * SECTOR_SIZE;
+        long sectorsEnd = offset + (long) (loc & 0xFF) * SECTOR_SIZE;
+        if (offset < HEADER_SIZE || offset + Integer.BYTES + 1 > data.capacity()) {
+            return null;
+        }
+        int length = data.getInt((int) offset);
+        long end = offset + Integer.BYTES + length;
+        if (length <= 0 || end > data.capacity() || end > sectorsEnd) {
+            return null;
+        }
+        if ((data.get((int) offset + Integer.BYTES) & EXTERNAL_FLAG) != 0) {
+            return null;
+        }
+        ByteBuffer slice = data.duplicate();
+        slice.position((int) offset + Integer.BYTES);
+        slice.limit((int) end);
+        return slice.slice();
+    }
+}
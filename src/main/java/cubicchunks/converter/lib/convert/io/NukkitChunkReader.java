@@ -30,6 +30,8 @@ import cubicchunks.regionlib.impl.save.MinecraftSaveSection;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
@@ -62,9 +64,7 @@ public class NukkitChunkReader extends BaseMinecraftReader<NukkitChunkData, Mine
     }
 
     private void doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
-        for (MinecraftSaveSection save : saves.values()) {
-            save.forAllKeys(interruptibleConsumer(loc -> increment.run()));
-        }
+        countIndexedChunks(getHeaderIndex(d -> getDimensionPath(d, srcDir)), increment);
     }
 
     @Override
@@ -77,14 +77,32 @@ public class NukkitChunkReader extends BaseMinecraftReader<NukkitChunkData, Mine
     }
 
     private void doLoadChunks(Consumer<? super NukkitChunkData> consumer) throws IOException, UncheckedInterruptedException {
+        RegionHeaderIndex index = getHeaderIndex(d -> getDimensionPath(d, srcDir));
         for (Map.Entry<Dimension, MinecraftSaveSection> entry : saves.entrySet()) {
             if (Thread.interrupted()) {
                 return;
             }
             MinecraftSaveSection vanillaSave = entry.getValue();
             Dimension d = entry.getKey();
-            vanillaSave.forAllKeys(interruptibleConsumer(mcPos -> consumer.accept(new NukkitChunkData(d, mcPos, vanillaSave.load(mcPos).orElse(null)))));
+            for (RegionHeaderIndex.Region region : index.getRegions(d)) {
+                loadMappedRegion(region, vanillaSave::load, (mcPos, data) -> consumer.accept(new NukkitChunkData(d, mcPos, data)));
+            }
+        }
+    }
+
+    @Override
+    public List<LoadTask<NukkitChunkData>> splitLoading() throws IOException {
+        RegionHeaderIndex index = getHeaderIndex(d -> getDimensionPath(d, srcDir));
+        List<LoadTask<NukkitChunkData>> tasks = new ArrayList<>();
+        for (Map.Entry<Dimension, MinecraftSaveSection> entry : saves.entrySet()) {
+            MinecraftSaveSection vanillaSave = entry.getValue();
+            Dimension d = entry.getKey();
+            for (RegionHeaderIndex.Region region : index.getRegions(d)) {
+                tasks.add(consumer -> loadMappedRegion(region, vanillaSave::load,
+                    (mcPos, data) -> consumer.accept(new NukkitChunkData(d, mcPos, data))));
+            }
         }
+        return tasks;
     }
 
     @Override
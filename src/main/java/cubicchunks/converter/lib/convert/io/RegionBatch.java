@@ -0,0 +1,86 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Entries of one write batch, grouped by the region file they go to. Each region group is written
+ * in entry id order while holding the {@link RegionLocks} lock of that region, so writes from other threads to the same region
+ * can't interleave and the batch gets sectors next to each other.
+ */
+final class RegionBatch<K extends IKey<K>> {
+
+    private final Map<String, List<Entry<K>>> regions = new HashMap<>();
+
+    void add(K key, ByteBuffer data) {
+        regions.computeIfAbsent(key.getRegionKey().getName(), name -> new ArrayList<>()).add(new Entry<>(key, data));
+    }
+
+    /**
+     * Writes all entries.
+     *
+     * @param locks region locks of the save all entries are written to
+     * @param writer writes a single entry
+     */
+    void write(RegionLocks locks, EntryWriter<K> writer) throws IOException {
+        for (Map.Entry<String, List<Entry<K>>> region : regions.entrySet()) {
+            List<Entry<K>> entries = region.getValue();
+            entries.sort(Comparator.comparingInt(e -> e.key.getId()));
+            ReentrantLock lock = locks.lockFor(region.getKey());
+            lock.lock();
+            try {
+                for (Entry<K> entry : entries) {
+                    writer.write(entry.key, entry.data);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryWriter<K> {
+        void write(K key, ByteBuffer data) throws IOException;
+    }
+
+    private static final class Entry<K> {
+        final K key;
+        final ByteBuffer data;
+
+        Entry(K key, ByteBuffer data) {
+            this.key = key;
+            this.data = data;
+        }
+    }
+}
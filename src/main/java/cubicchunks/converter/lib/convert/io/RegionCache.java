@@ -0,0 +1,382 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import cubicchunks.regionlib.api.region.IRegion;
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Open region handles of {@link CachingRegionProvider}s, shared like regionlib's SharedCachedRegionProvider cache,
+ * but with configurable size and hit/miss/eviction counters. Least recently used regions are closed first.
+ * Regions that are being read or written are pinned, and never closed until they are released.
+ *
+ * The cache lock only guards bookkeeping. Regions are opened and closed outside of it, concurrent requests
+ * for a region that is being opened wait only for that region. A region that is being closed is not opened again until closing has finished.
+ */
+public class RegionCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<CacheKey, Handle<?>> regions = new LinkedHashMap<>(16, 0.75f, true);
+    // evicted regions that are being closed
+    private final Map<CacheKey, CompletableFuture<Void>> closing = new HashMap<>();
+    private int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public RegionCache(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    public void setMaxSize(int maxSize) {
+        List<Handle<?>> toClose;
+        synchronized (this) {
+            this.maxSize = Math.max(1, maxSize);
+            toClose = evictUnused();
+        }
+        closeEvicted(toClose);
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getOpenRegions() {
+        return regions.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns a pinned handle of the region, opening it if it's not cached. Returns null if the opener returns empty.
+     * The handle must be given back using {@link #release(Handle)}.
+     */
+    <K extends IKey<K>> Handle<K> acquire(Object owner, RegionKey key, RegionOpener<K> opener) throws IOException {
+        CacheKey cacheKey = new CacheKey(owner, key.getName());
+        while (true) {
+            Handle<K> handle = null;
+            CompletableFuture<Void> closed;
+            boolean open = false;
+            List<Handle<?>> toClose = Collections.emptyList();
+            synchronized (this) {
+                closed = closing.get(cacheKey);
+                if (closed == null) {
+                    @SuppressWarnings("unchecked")
+                    Handle<K> cached = (Handle<K>) regions.get(cacheKey);
+                    handle = cached;
+                    if (handle != null) {
+                        hits.increment();
+                    } else {
+                        misses.increment();
+                        handle = new Handle<>(cacheKey);
+                        regions.put(cacheKey, handle);
+                        open = true;
+                    }
+                    handle.users++;
+                    toClose = evictUnused();
+                }
+            }
+            closeEvicted(toClose);
+            if (closed != null) {
+                closed.join();
+                continue;
+            }
+            if (open) {
+                open(handle, opener);
+            }
+            IRegion<K> region = awaitOpen(handle);
+            if (region != null) {
+                return handle;
+            }
+            if (open) {
+                return null;
+            }
+            // another opener didn't find the region, this one may still create it
+            release(handle);
+        }
+    }
+
+    void release(Handle<?> handle) {
+        List<Handle<?>> toClose;
+        synchronized (this) {
+            handle.users--;
+            if (handle.users == 0 && handle.detached && handle.region != null) {
+                // removed from the cache while in use, close it now that it's unused
+                toClose = new ArrayList<>();
+                toClose.add(handle);
+                closing.putIfAbsent(handle.key, handle.closed);
+            } else {
+                toClose = evictUnused();
+            }
+        }
+        closeEvicted(toClose);
+    }
+
+    /**
+     * Closes and removes all regions of the given owner.
+     */
+    void closeAll(Object owner) throws IOException {
+        List<Handle<?>> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Map.Entry<CacheKey, Handle<?>>> it = regions.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<CacheKey, Handle<?>> entry = it.next();
+                Handle<?> handle = entry.getValue();
+                if (entry.getKey().owner != owner || handle.region == null) {
+                    continue;
+                }
+                it.remove();
+                toClose.add(handle);
+                closing.put(handle.key, handle.closed);
+            }
+        }
+        IOException exception = null;
+        for (Handle<?> handle : toClose) {
+            try {
+                closeHandle(handle);
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Closes all regions, so that later reads see changes made by other programs. Regions that are in use
+     * are closed when they are released.
+     */
+    public void invalidateAll() {
+        invalidate(regionName -> true);
+    }
+
+    /**
+     * Closes regions with matching names, of all owners, like {@link #invalidateAll()}.
+     */
+    public void invalidate(Predicate<String> regionName) {
+        List<Handle<?>> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Handle<?>> it = regions.values().iterator(); it.hasNext(); ) {
+                Handle<?> handle = it.next();
+                if (handle.region == null || !regionName.test(handle.key.region)) {
+                    // still opening, whoever opens it reads the current state
+                    continue;
+                }
+                it.remove();
+                if (handle.users == 0) {
+                    toClose.add(handle);
+                    closing.put(handle.key, handle.closed);
+                } else {
+                    handle.detached = true;
+                }
+            }
+        }
+        closeEvicted(toClose);
+    }
+
+    private <K extends IKey<K>> void open(Handle<K> handle, RegionOpener<K> opener) throws IOException {
+        Optional<IRegion<K>> region;
+        try {
+            region = opener.open();
+        } catch (Throwable t) {
+            detach(handle);
+            handle.opened.completeExceptionally(t);
+            throw t;
+        }
+        if (region.isPresent()) {
+            handle.region = region.get();
+            handle.opened.complete(region.get());
+        } else {
+            detach(handle);
+            handle.opened.complete(null);
+        }
+    }
+
+    private synchronized void detach(Handle<?> handle) {
+        regions.remove(handle.key, handle);
+    }
+
+    private static <K extends IKey<K>> IRegion<K> awaitOpen(Handle<K> handle) throws IOException {
+        try {
+            return handle.opened.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // called with the lock held, the returned regions must be closed after releasing it
+    private List<Handle<?>> evictUnused() {
+        if (regions.size() <= maxSize) {
+            return Collections.emptyList();
+        }
+        List<Handle<?>> toClose = new ArrayList<>();
+        for (Iterator<Handle<?>> it = regions.values().iterator(); it.hasNext() && regions.size() > maxSize; ) {
+            Handle<?> handle = it.next();
+            // handles that are still opening are always pinned by the opener
+            if (handle.users == 0) {
+                it.remove();
+                toClose.add(handle);
+                closing.put(handle.key, handle.closed);
+            }
+        }
+        return toClose;
+    }
+
+    private void closeEvicted(List<Handle<?>> toClose) {
+        for (Handle<?> handle : toClose) {
+            evictions.increment();
+            try {
+                closeHandle(handle);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void closeHandle(Handle<?> handle) throws IOException {
+        try {
+            handle.region.close();
+        } finally {
+            synchronized (this) {
+                closing.remove(handle.key, handle.closed);
+            }
+            handle.closed.complete(null);
+        }
+    }
+
+    @Override public String toString() {
+        return String.format("RegionCache{open=%d, maxSize=%d, hits=%d, misses=%d, evictions=%d}",
+            getOpenRegions(), getMaxSize(), getHits(), getMisses(), getEvictions());
+    }
+
+    @FunctionalInterface
+    interface RegionOpener<K extends IKey<K>> {
+        Optional<IRegion<K>> open() throws IOException;
+    }
+
+    static final class Handle<K extends IKey<K>> {
+        private final CacheKey key;
+        private final CompletableFuture<IRegion<K>> opened = new CompletableFuture<>();
+        private final CompletableFuture<Void> closed = new CompletableFuture<>();
+        // serializes access to the region, not a monitor so that virtual threads doing IO under it aren't pinned
+        final ReentrantLock lock = new ReentrantLock();
+        private volatile IRegion<K> region;
+        // guarded by the cache
+        private int users;
+        private boolean detached;
+
+        Handle(CacheKey key) {
+            this.key = key;
+        }
+
+        IRegion<K> getRegion() {
+            return region;
+        }
+    }
+
+    /**
+     * The region cache of a reader or writer. It's created with the default size when it's first needed,
+     * unless a cache is set before that.
+     */
+    public static final class Slot implements Supplier<RegionCache> {
+
+        private RegionCache cache;
+
+        public synchronized void set(RegionCache cache) {
+            this.cache = cache;
+        }
+
+        @Override public synchronized RegionCache get() {
+            if (cache == null) {
+                cache = new RegionCache(DEFAULT_MAX_SIZE);
+            }
+            return cache;
+        }
+    }
+
+    private static final class CacheKey {
+        private final Object owner;
+        private final String region;
+
+        CacheKey(Object owner, String region) {
+            this.owner = owner;
+            this.region = region;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return owner == that.owner && region.equals(that.region);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(System.identityHashCode(owner), region);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.convert.SourceStats;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Which entries exist in each vanilla region file of a world, built from a single parallel scan of the region headers.
+ * Used both for counting and for driving loading, so that the headers are only read once.
+ */
+class RegionHeaderIndex {
+
+    private static final Pattern VANILLA_REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final int SECTOR_SIZE = 4096;
+
+    private final Map<Dimension, List<Region>> regions;
+    private final int entryCount;
+
+    private RegionHeaderIndex(Map<Dimension, List<Region>> regions) {
+        this.regions = regions;
+        int count = 0;
+        for (List<Region> list : regions.values()) {
+            for (Region region : list) {
+                count += region.entries;
+            }
+        }
+        this.entryCount = count;
+    }
+
+    /**
+     * Reads location tables of all region files in the given directories in parallel. Regions without any entries
+     * are left out.
+     *
+     * @param threads size of the pool reading the headers, 0 reads them in the common fork-join pool
+     */
+    static RegionHeaderIndex scan(Map<Dimension, Path> regionDirs, int threads) throws IOException {
+        if (threads <= 0) {
+            return scan(regionDirs);
+        }
+        // parallel streams run in the pool of the task that starts them
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> scan(regionDirs)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning region headers");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static RegionHeaderIndex scan(Map<Dimension, Path> regionDirs) throws IOException {
+        Map<Dimension, List<Region>> regions = new HashMap<>();
+        try {
+            for (Map.Entry<Dimension, Path> entry : regionDirs.entrySet()) {
+                List<Region> scanned = listRegionFiles(entry.getValue()).parallelStream()
+                    .map(RegionHeaderIndex::scanRegion)
+                    .filter(region -> region != null && region.entries > 0)
+                    .sorted(Comparator.comparingInt((Region r) -> r.regionZ).thenComparingInt(r -> r.regionX))
+                    .collect(Collectors.toList());
+                regions.put(entry.getKey(), Collections.unmodifiableList(scanned));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new RegionHeaderIndex(regions);
+    }
+
+    List<Region> getRegions(Dimension dimension) {
+        return regions.getOrDefault(dimension, Collections.emptyList());
+    }
+
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    void addTo(SourceStats stats) {
+        for (List<Region> list : regions.values()) {
+            for (Region region : list) {
+                stats.addRegion(MappedRegionFile.ENTRIES, region.entries, region.bytes);
+            }
+        }
+    }
+
+    private static List<Path> listRegionFiles(Path regionDir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(regionDir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(regionDir)) {
+            for (Path file : dir) {
+                if (VANILLA_REGION_NAME.matcher(file.getFileName().toString()).matches()) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static Region scanRegion(Path file) {
+        Matcher matcher = VANILLA_REGION_NAME.matcher(file.getFileName().toString());
+        if (!matcher.matches()) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(MappedRegionFile.ENTRIES * Integer.BYTES);
+        try {
+            BaseMinecraftReader.readHeader(file, header);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Region region = new Region(file, Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+        for (int i = 0; header.remaining() >= Integer.BYTES; i++) {
+            int loc = header.getInt();
+            if (loc != 0) {
+                region.occupied[i >>> 6] |= 1L << i;
+                region.entries++;
+                region.bytes += (loc & 0xFF) * (long) SECTOR_SIZE;
+            }
+        }
+        return region;
+    }
+
+    static final class Region {
+        final Path file;
+        final int regionX;
+        final int regionZ;
+        // one bit per entry index, see MappedRegionFile.index
+        final long[] occupied = new long[MappedRegionFile.ENTRIES / Long.SIZE];
+        int entries;
+        // rounded up to whole sectors
+        long bytes;
+
+        Region(Path file, int regionX, int regionZ) {
+            this.file = file;
+            this.regionX = regionX;
+            this.regionZ = regionZ;
+        }
+
+        boolean hasEntry(int index) {
+            return (occupied[index >>> 6] & 1L << index) != 0;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write locks of the region files of one save. Batched and single writes to a region both hold its lock,
+ * so they can't interleave. Regions of different saves never share a lock.
+ *
+ * These are not monitors, a virtual thread waiting for a region or writing while holding its lock
+ * must not stay pinned to its carrier thread.
+ */
+final class RegionLocks {
+
+    private final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    ReentrantLock lockFor(String regionName) {
+        ReentrantLock lock = locks.get(regionName);
+        if (lock == null) {
+            lock = locks.computeIfAbsent(regionName, name -> new ReentrantLock());
+        }
+        return lock;
+    }
+
+    <K extends IKey<K>> void write(K key, ByteBuffer data, RegionBatch.EntryWriter<K> writer) throws IOException {
+        ReentrantLock lock = lockFor(key.getRegionKey().getName());
+        lock.lock();
+        try {
+            writer.write(key, data);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
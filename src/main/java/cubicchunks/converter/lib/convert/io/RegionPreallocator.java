@@ -0,0 +1,152 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import cubicchunks.converter.lib.convert.PreallocationMode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reserves space for new region files before regionlib opens them, and trims the unused space when the writer is closed.
+ * The reserved space is zeroed, so regionlib sees an empty region and allocates sectors inside of it
+ * instead of extending the file for every entry.
+ */
+class RegionPreallocator {
+
+    private static final int ZERO_BLOCK_SIZE = 1 << 20;
+
+    private final PreallocationMode mode;
+    private final int headerEntries;
+    private final int sectorSize;
+    // value is the preallocated size, or 0 if the file already existed
+    private final Map<Path, Long> regions = new ConcurrentHashMap<>();
+
+    RegionPreallocator(PreallocationMode mode, int headerEntries, int sectorSize) {
+        this.mode = mode;
+        this.headerEntries = headerEntries;
+        this.sectorSize = sectorSize;
+    }
+
+    /**
+     * Preallocates the region file if it doesn't exist yet. Blocks other threads requesting the same file until done.
+     *
+     * @param expectedEntries expected number of entries in the region
+     * @param expectedBytes expected total size of entries in the region
+     */
+    void ensureAllocated(Path file, double expectedEntries, double expectedBytes) {
+        if (regions.containsKey(file)) {
+            return;
+        }
+        regions.computeIfAbsent(file, f -> {
+            if (Files.exists(f)) {
+                return 0L;
+            }
+            long headerBytes = (long) headerEntries * Integer.BYTES;
+            // every entry wastes half a sector on average
+            long dataBytes = (long) (expectedBytes + expectedEntries * sectorSize / 2);
+            long size = roundUp(headerBytes, sectorSize) + roundUp(dataBytes, sectorSize);
+            try {
+                Files.createDirectories(f.getParent());
+                allocate(f, size);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return 0L;
+            }
+            return size;
+        });
+    }
+
+    private void allocate(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            if (mode == PreallocationMode.FULL) {
+                ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(ZERO_BLOCK_SIZE, size));
+                long pos = 0;
+                while (pos < size) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(zeros.capacity(), size - pos));
+                    pos += channel.write(zeros, pos);
+                }
+            } else {
+                // writing the last byte extends the file without allocating the blocks in between
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        }
+    }
+
+    /**
+     * Truncates all preallocated files to the end of the last used sector. Must be called after the regions are closed.
+     */
+    void trimAll() throws IOException {
+        IOException exception = null;
+        for (Map.Entry<Path, Long> entry : regions.entrySet()) {
+            if (entry.getValue() == 0) {
+                continue;
+            }
+            try {
+                trim(entry.getKey());
+            } catch (IOException e) {
+                e.printStackTrace();
+                exception = e;
+            }
+        }
+        regions.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void trim(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(headerEntries * Integer.BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+            header.flip();
+            long end = roundUp(header.capacity(), sectorSize);
+            while (header.remaining() >= Integer.BYTES) {
+                int loc = header.getInt();
+                long entryEnd = ((loc >>> 8) + (long) (loc & 0xFF)) * sectorSize;
+                // special entries don't point to sectors in the file
+                if ((loc & 0xFF) != 0 && entryEnd <= fileSize) {
+                    end = Math.max(end, entryEnd);
+                }
+            }
+            if (end < fileSize) {
+                channel.truncate(end);
+            }
+        }
+    }
+
+    private static long roundUp(long value, int multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+}
@@ -25,14 +25,14 @@ package cubicchunks.converter.lib.convert.io;
 
 import static cubicchunks.converter.lib.util.Utils.interruptibleConsumer;
 
-import com.carrotsearch.hppc.IntArrayList;
-import com.carrotsearch.hppc.cursors.IntCursor;
+import com.carrotsearch.hppc.LongHashSet;
 import cubicchunks.converter.lib.Dimension;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.data.RobintonColumnData;
 import cubicchunks.converter.lib.convert.robinton2cc.RobintonEntryLocation3D;
 import cubicchunks.converter.lib.convert.robinton2cc.RobintonSaveSection;
 import cubicchunks.converter.lib.util.UncheckedInterruptedException;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.api.storage.SaveSection;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
@@ -40,22 +40,42 @@ import cubicchunks.regionlib.impl.SaveCubeColumns;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class RobintonChunkReader extends BaseMinecraftReader<RobintonColumnData, RobintonSaveSection> {
 
+    // each cube is loaded and converted on its own, streaming region files one by one without indexing columns first
+    public static final String CUBE_STREAMING = "robintonCubeStreaming";
+    // columns are assembled from region files read in file order, spilling partial columns to temporary files
+    public static final String SPILL_COLUMNS = "robintonSpillColumns";
+    public static final String SPILL_BUFFER_MB = "robintonSpillBufferMB";
+
+    // horizontal size of robinton regions
+    private static final int REGION_BITS = 5;
+    private static final RobintonEntryLocation3D.Provider KEY_PROVIDER = new RobintonEntryLocation3D.Provider();
+
     private final CompletableFuture<RobintonChunkReader.ChunkList> chunkList = new CompletableFuture<>();
     private final Thread loadThread;
 
     public RobintonChunkReader(Path srcDir) {
-        super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path)) : null);
+        super(srcDir, (dim, path, cache) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path), cache) : null);
         loadThread = Thread.currentThread();
+        config.setDefault(CUBE_STREAMING, false);
+        config.setDefault(SPILL_COLUMNS, false);
+        config.setDefault(SPILL_BUFFER_MB, 256);
     }
 
     private static Path getDimensionPath(Dimension d, Path worldDir) {
@@ -65,91 +85,290 @@ public class RobintonChunkReader extends BaseMinecraftReader<RobintonColumnData,
         return worldDir;
     }
 
+    private boolean isCubeStreaming() {
+        return config.getBool(CUBE_STREAMING);
+    }
+
+    private boolean isSpillingColumns() {
+        return !isCubeStreaming() && config.getBool(SPILL_COLUMNS);
+    }
+
     @Override public void countInputChunks(Runnable increment) throws IOException {
+        if (isCubeStreaming()) {
+            try {
+                countCubes(increment);
+            } catch (UncheckedInterruptedException ex) {
+                // return
+            }
+            return;
+        }
+        if (isSpillingColumns()) {
+            try {
+                countColumns(increment);
+            } catch (UncheckedInterruptedException ex) {
+                // return
+            }
+            return;
+        }
         try {
-            Map<Dimension, Map<EntryLocation2D, IntArrayList>> dimensions = doCountChunks(increment);
+            Map<Dimension, ColumnIndex> dimensions = doCountChunks(increment);
             chunkList.complete(new RobintonChunkReader.ChunkList(dimensions));
         } catch (UncheckedInterruptedException ex) {
             chunkList.complete(null);
+        } catch (IOException | RuntimeException e) {
+            // don't leave loading waiting forever
+            chunkList.completeExceptionally(e);
+            throw e;
         }
     }
 
-    private Map<Dimension, Map<EntryLocation2D, IntArrayList>> doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
-        Map<Dimension, Map<EntryLocation2D, IntArrayList>> dimensions = new ConcurrentHashMap<>();
+    private Map<Dimension, ColumnIndex> doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
+        Map<Dimension, ColumnIndex> dimensions = new HashMap<>();
         for (Map.Entry<Dimension, RobintonSaveSection> entry : saves.entrySet()) {
             RobintonSaveSection save = entry.getValue();
             Dimension dim = entry.getKey();
-            Map<EntryLocation2D, IntArrayList> chunks = dimensions.computeIfAbsent(dim, p -> new ConcurrentHashMap<>());
+            ColumnIndex chunks = dimensions.computeIfAbsent(dim, p -> new ColumnIndex());
             save.forAllKeys(interruptibleConsumer(loc -> {
-                EntryLocation2D loc2d = new EntryLocation2D(loc.getEntryX(), loc.getEntryZ());
-                chunks.computeIfAbsent(loc2d, l -> {
+                if (chunks.add(loc.getEntryX(), loc.getEntryY(), loc.getEntryZ())) {
                     increment.run();
-                    return new IntArrayList();
-                }).add(loc.getEntryY());
+                }
             }));
         }
         return dimensions;
     }
 
+    private void countCubes(Runnable increment) throws IOException, UncheckedInterruptedException {
+        ByteBuffer header = ByteBuffer.allocate(RobintonEntryLocation3D.ENTRIES_PER_REGION * Integer.BYTES);
+        for (Dimension dim : saves.keySet()) {
+            for (Path regionFile : getRegionFiles(dim)) {
+                header.clear();
+                readHeader(regionFile, header);
+                while (header.remaining() >= Integer.BYTES) {
+                    if (Thread.interrupted()) {
+                        throw new UncheckedInterruptedException();
+                    }
+                    // empty cubes have a special marker entry, they are converted too
+                    if (header.getInt() != 0) {
+                        increment.run();
+                    }
+                }
+            }
+        }
+    }
+
+    // only the column keys are kept, which is much smaller than the full column index
+    private void countColumns(Runnable increment) throws IOException, UncheckedInterruptedException {
+        ByteBuffer header = ByteBuffer.allocate(RobintonEntryLocation3D.ENTRIES_PER_REGION * Integer.BYTES);
+        for (Dimension dim : saves.keySet()) {
+            LongHashSet columns = new LongHashSet();
+            for (Path regionFile : getRegionFiles(dim)) {
+                header.clear();
+                readHeader(regionFile, header);
+                int[] region = RobintonEntryLocation3D.parseRegion(regionFile.getFileName().toString());
+                for (int id = 0; header.remaining() >= Integer.BYTES; id++) {
+                    if (Thread.interrupted()) {
+                        throw new UncheckedInterruptedException();
+                    }
+                    if (header.getInt() != 0) {
+                        long column = ColumnIndex.pack(RobintonEntryLocation3D.entryX(region[0], id), RobintonEntryLocation3D.entryZ(region[2], id));
+                        if (columns.add(column)) {
+                            increment.run();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     @Override public void loadChunks(Consumer<? super RobintonColumnData> consumer) throws IOException, InterruptedException {
-        try {
-            RobintonChunkReader.ChunkList list = chunkList.get();
-            if (list == null) {
-                return; // counting interrupted
+        if (isCubeStreaming()) {
+            for (Map.Entry<Dimension, RobintonSaveSection> entry : saves.entrySet()) {
+                Dimension dim = entry.getKey();
+                for (Path regionFile : getRegionFiles(dim)) {
+                    if (!loadRegionCubes(entry.getValue(), regionFile, (pos, cube) -> consumer.accept(toCubeData(dim, pos, cube)))) {
+                        return;
+                    }
+                }
+            }
+            return;
+        }
+        if (isSpillingColumns()) {
+            for (Map.Entry<Dimension, RobintonSaveSection> entry : saves.entrySet()) {
+                if (!loadSpilledColumns(entry.getKey(), entry.getValue(), consumer)) {
+                    return;
+                }
             }
-            doLoadChunks(consumer, list);
+            return;
+        }
+        RobintonChunkReader.ChunkList list = getChunkList();
+        if (list == null) {
+            return; // counting interrupted
+        }
+        doLoadChunks(consumer, list);
+    }
+
+    private RobintonChunkReader.ChunkList getChunkList() throws InterruptedException {
+        try {
+            return chunkList.get();
         } catch (ExecutionException e) {
             throw new RuntimeException(e);
         }
     }
 
     private void doLoadChunks(Consumer<? super RobintonColumnData> consumer, RobintonChunkReader.ChunkList list) throws IOException {
-        for (Map.Entry<Dimension, Map<EntryLocation2D, IntArrayList>> dimEntry : list.getChunks().entrySet()) {
+        for (Map.Entry<Dimension, ColumnIndex> dimEntry : list.getChunks().entrySet()) {
             if (Thread.interrupted()) {
                 return;
             }
             Dimension dim = dimEntry.getKey();
             RobintonSaveSection save = saves.get(dim);
-            for (Map.Entry<EntryLocation2D, IntArrayList> chunksEntry : dimEntry.getValue().entrySet()) {
-                if (Thread.interrupted()) {
-                    return;
+            ColumnIndex columns = dimEntry.getValue();
+            if (!loadColumns(dim, save, columns, columns.getColumnsSorted(REGION_BITS), consumer)) {
+                return;
+            }
+        }
+    }
+
+    @Override public List<LoadTask<RobintonColumnData>> splitLoading() throws IOException, InterruptedException {
+        List<LoadTask<RobintonColumnData>> tasks = new ArrayList<>();
+        if (isCubeStreaming()) {
+            for (Map.Entry<Dimension, RobintonSaveSection> entry : saves.entrySet()) {
+                Dimension dim = entry.getKey();
+                for (Path regionFile : getRegionFiles(dim)) {
+                    tasks.add(consumer -> loadRegionCubes(entry.getValue(), regionFile, (pos, cube) -> consumer.accept(toCubeData(dim, pos, cube))));
                 }
-                EntryLocation2D pos2d = chunksEntry.getKey();
-                IntArrayList yCoords = chunksEntry.getValue();
-                Map<Integer, ByteBuffer> cubes = new ConcurrentHashMap<>();
-                for (IntCursor yCursor : yCoords) {
-                    if (Thread.interrupted()) {
-                        return;
-                    }
-                    int y = yCursor.value;
-                    ByteBuffer cube = save.load(new RobintonEntryLocation3D(pos2d.getEntryX(), y, pos2d.getEntryZ())).orElseThrow(
-                            () -> new IllegalStateException("Expected cube at " + pos2d + " at y=" + y + " in dimension " + dim));
+            }
+            return tasks;
+        }
+        if (isSpillingColumns()) {
+            return tasks; // assembling columns is sequential
+        }
+        RobintonChunkReader.ChunkList list = getChunkList();
+        if (list == null) {
+            return tasks; // counting interrupted
+        }
+        for (Map.Entry<Dimension, ColumnIndex> dimEntry : list.getChunks().entrySet()) {
+            Dimension dim = dimEntry.getKey();
+            RobintonSaveSection save = saves.get(dim);
+            ColumnIndex columns = dimEntry.getValue();
+            // one task per horizontal region area, each cube Y level of it is a separate region file
+            for (long[] regionColumns : columns.getColumnsByRegion(REGION_BITS)) {
+                tasks.add(consumer -> loadColumns(dim, save, columns, regionColumns, consumer));
+            }
+        }
+        return tasks;
+    }
 
-                    cubes.put(y, cube);
+    // returns false if interrupted
+    private boolean loadSpilledColumns(Dimension dim, RobintonSaveSection save, Consumer<? super RobintonColumnData> consumer) throws IOException {
+        long bufferBytes = config.getLong(SPILL_BUFFER_MB) * 1024 * 1024;
+        try (SpillingColumnAssembler assembler = new SpillingColumnAssembler(bufferBytes)) {
+            for (Path regionFile : getRegionFiles(dim)) {
+                if (!loadRegionCubes(save, regionFile, (pos, cube) -> assembler.add(pos.getEntryX(), pos.getEntryY(), pos.getEntryZ(), cube))) {
+                    return false;
                 }
-                RobintonColumnData data = new RobintonColumnData(dim, pos2d, cubes);
-                consumer.accept(data);
             }
+            return assembler.assemble((pos, cubes) -> consumer.accept(new RobintonColumnData(dim, pos, cubes)));
         }
     }
 
+    private static RobintonColumnData toCubeData(Dimension dim, RobintonEntryLocation3D pos, ByteBuffer cube) {
+        EntryLocation2D pos2d = new EntryLocation2D(pos.getEntryX(), pos.getEntryZ());
+        return new RobintonColumnData(dim, pos2d, Collections.singletonMap(pos.getEntryY(), cube));
+    }
+
+    // returns false if interrupted
+    private boolean loadRegionCubes(RobintonSaveSection save, Path regionFile, CubeConsumer consumer) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(RobintonEntryLocation3D.ENTRIES_PER_REGION * Integer.BYTES);
+        readHeader(regionFile, header);
+        RegionKey regionKey = new RegionKey(regionFile.getFileName().toString());
+        // entries are read in id order, which is mostly the order they are stored in
+        for (int id = 0; header.remaining() >= Integer.BYTES; id++) {
+            if (header.getInt() == 0) {
+                continue;
+            }
+            if (Thread.interrupted()) {
+                return false;
+            }
+            RobintonEntryLocation3D pos = KEY_PROVIDER.fromRegionAndId(regionKey, id);
+            Optional<ByteBuffer> cube = save.load(pos);
+            if (cube.isPresent()) {
+                consumer.accept(pos, cube.get());
+            }
+        }
+        return true;
+    }
+
+    private List<Path> getRegionFiles(Dimension dim) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path regionDir = getDimensionPath(dim, srcDir).resolve("region");
+        if (!Files.isDirectory(regionDir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(regionDir)) {
+            for (Path file : dir) {
+                if (RobintonEntryLocation3D.parseRegion(file.getFileName().toString()) != null) {
+                    files.add(file);
+                }
+            }
+        }
+        // deterministic order
+        Collections.sort(files);
+        return files;
+    }
+
+    // returns false if interrupted
+    private boolean loadColumns(Dimension dim, RobintonSaveSection save, ColumnIndex index, long[] columns,
+        Consumer<? super RobintonColumnData> consumer) throws IOException {
+
+        for (long column : columns) {
+            EntryLocation2D pos = new EntryLocation2D(ColumnIndex.unpackX(column), ColumnIndex.unpackZ(column));
+            RobintonColumnData data = loadColumn(dim, save, pos, index.getCubeY(column));
+            if (data == null) {
+                return false;
+            }
+            consumer.accept(data);
+        }
+        return true;
+    }
+
+    // returns null if interrupted
+    private RobintonColumnData loadColumn(Dimension dim, RobintonSaveSection save, EntryLocation2D pos2d, int[] yCoords) throws IOException {
+        Map<Integer, ByteBuffer> cubes = new ConcurrentHashMap<>();
+        for (int y : yCoords) {
+            if (Thread.interrupted()) {
+                return null;
+            }
+            ByteBuffer cube = save.load(new RobintonEntryLocation3D(pos2d.getEntryX(), y, pos2d.getEntryZ())).orElseThrow(
+                    () -> new IllegalStateException("Expected cube at " + pos2d + " at y=" + y + " in dimension " + dim));
+
+            cubes.put(y, cube);
+        }
+        return new RobintonColumnData(dim, pos2d, cubes);
+    }
+
     @Override public void stop() {
         loadThread.interrupt();
     }
 
-    private static RobintonSaveSection createSave(Path path) {
-        return RobintonSaveSection.createAt(path.resolve("region"));
+    private static RobintonSaveSection createSave(Path path, Supplier<RegionCache> cache) {
+        return RobintonSaveSection.createAt(path.resolve("region"), cache);
+    }
+
+    private interface CubeConsumer {
+        void accept(RobintonEntryLocation3D pos, ByteBuffer cube) throws IOException;
     }
 
     private static class ChunkList {
 
-        private final Map<Dimension, Map<EntryLocation2D, IntArrayList>> chunks;
+        private final Map<Dimension, ColumnIndex> chunks;
 
-        private ChunkList(Map<Dimension, Map<EntryLocation2D, IntArrayList>> chunks) {
+        private ChunkList(Map<Dimension, ColumnIndex> chunks) {
             this.chunks = chunks;
         }
 
-        Map<Dimension, Map<EntryLocation2D, IntArrayList>> getChunks() {
+        Map<Dimension, ColumnIndex> getChunks() {
             return chunks;
         }
     }
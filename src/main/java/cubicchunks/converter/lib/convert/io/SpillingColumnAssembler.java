@@ -0,0 +1,290 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+
+/**
+ * Groups cubes read in arbitrary order into columns with bounded memory use. Cubes are buffered in memory up to a limit,
+ * then written to a temporary run file sorted by column. Columns are assembled by merging all runs.
+ *
+ * Not thread safe.
+ */
+final class SpillingColumnAssembler implements Closeable {
+
+    // rough size of a buffered cube object and its ByteBuffer
+    private static final int CUBE_OVERHEAD_BYTES = 64;
+    // runs merged at once, limits the number of open files and read buffers
+    private static final int MAX_MERGE_RUNS = 64;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private static final Comparator<Cube> CUBE_ORDER =
+        Comparator.comparingLong((Cube c) -> ColumnIndex.sortOrder(c.column)).thenComparingInt(c -> c.y);
+
+    private final Path spillDir;
+    private final long maxBufferedBytes;
+    private final List<Path> runs = new ArrayList<>();
+    private final List<Cube> buffered = new ArrayList<>();
+    private long bufferedBytes;
+    private int nextRunId;
+
+    SpillingColumnAssembler(long maxBufferedBytes) throws IOException {
+        this.spillDir = Files.createTempDirectory("cc-converter-columns");
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    void add(int x, int y, int z, ByteBuffer data) throws IOException {
+        buffered.add(new Cube(ColumnIndex.pack(x, z), y, data));
+        bufferedBytes += data.remaining() + CUBE_OVERHEAD_BYTES;
+        if (bufferedBytes >= maxBufferedBytes) {
+            spill();
+        }
+    }
+
+    /**
+     * Gives all added cubes to the consumer grouped into columns, ordered by x and then z.
+     *
+     * @return false if interrupted
+     */
+    boolean assemble(BiConsumer<EntryLocation2D, Map<Integer, ByteBuffer>> consumer) throws IOException {
+        if (runs.isEmpty()) {
+            // everything fits in memory
+            buffered.sort(CUBE_ORDER);
+            return emitColumns(new ListSource(buffered), consumer);
+        }
+        spill();
+        while (runs.size() > MAX_MERGE_RUNS) {
+            List<Path> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_MERGE_RUNS) {
+                List<Path> group = runs.subList(i, Math.min(runs.size(), i + MAX_MERGE_RUNS));
+                merged.add(mergeRuns(group));
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                readers.add(new RunReader(run));
+            }
+            return emitColumns(new MergeSource(readers), consumer);
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    @Override public void close() throws IOException {
+        buffered.clear();
+        Utils.rm(spillDir);
+    }
+
+    private void spill() throws IOException {
+        if (buffered.isEmpty()) {
+            return;
+        }
+        buffered.sort(CUBE_ORDER);
+        Path run = newRunFile();
+        try (DataOutputStream out = openRun(run)) {
+            for (Cube cube : buffered) {
+                writeCube(out, cube);
+            }
+        }
+        runs.add(run);
+        buffered.clear();
+        bufferedBytes = 0;
+    }
+
+    private Path mergeRuns(List<Path> group) throws IOException {
+        Path merged = newRunFile();
+        List<RunReader> readers = new ArrayList<>();
+        try (DataOutputStream out = openRun(merged)) {
+            for (Path run : group) {
+                readers.add(new RunReader(run));
+            }
+            MergeSource source = new MergeSource(readers);
+            for (Cube cube = source.next(); cube != null; cube = source.next()) {
+                writeCube(out, cube);
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        for (Path run : group) {
+            Files.delete(run);
+        }
+        return merged;
+    }
+
+    private boolean emitColumns(CubeSource source, BiConsumer<EntryLocation2D, Map<Integer, ByteBuffer>> consumer) throws IOException {
+        Cube cube = source.next();
+        while (cube != null) {
+            if (Thread.interrupted()) {
+                return false;
+            }
+            long column = cube.column;
+            Map<Integer, ByteBuffer> cubes = new HashMap<>();
+            while (cube != null && cube.column == column) {
+                cubes.put(cube.y, cube.data);
+                cube = source.next();
+            }
+            consumer.accept(new EntryLocation2D(ColumnIndex.unpackX(column), ColumnIndex.unpackZ(column)), cubes);
+        }
+        return true;
+    }
+
+    private Path newRunFile() {
+        return spillDir.resolve("run" + (nextRunId++) + ".bin");
+    }
+
+    private static DataOutputStream openRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE));
+    }
+
+    private static void writeCube(DataOutputStream out, Cube cube) throws IOException {
+        ByteBuffer data = cube.data;
+        out.writeLong(cube.column);
+        out.writeInt(cube.y);
+        out.writeInt(data.remaining());
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    private static final class Cube {
+        final long column;
+        final int y;
+        final ByteBuffer data;
+
+        Cube(long column, int y, ByteBuffer data) {
+            this.column = column;
+            this.y = y;
+            this.data = data;
+        }
+    }
+
+    private interface CubeSource {
+        // returns null at the end
+        Cube next() throws IOException;
+    }
+
+    private static final class ListSource implements CubeSource {
+        private final List<Cube> cubes;
+        private int next;
+
+        ListSource(List<Cube> cubes) {
+            this.cubes = cubes;
+        }
+
+        @Override public Cube next() {
+            return next < cubes.size() ? cubes.get(next++) : null;
+        }
+    }
+
+    private static final class RunReader implements CubeSource, Closeable {
+        private final DataInputStream in;
+
+        RunReader(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER_SIZE));
+        }
+
+        @Override public Cube next() throws IOException {
+            long column;
+            try {
+                column = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            int y = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Cube(column, y, ByteBuffer.wrap(data));
+        }
+
+        @Override public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class MergeSource implements CubeSource {
+        private final PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparing((Head h) -> h.cube, CUBE_ORDER));
+
+        MergeSource(List<RunReader> readers) throws IOException {
+            for (RunReader reader : readers) {
+                Cube cube = reader.next();
+                if (cube != null) {
+                    heads.add(new Head(reader, cube));
+                }
+            }
+        }
+
+        @Override public Cube next() throws IOException {
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            Cube cube = head.cube;
+            Cube following = head.reader.next();
+            if (following != null) {
+                heads.add(new Head(head.reader, following));
+            }
+            return cube;
+        }
+    }
+
+    private static final class Head {
+        final RunReader reader;
+        final Cube cube;
+
+        Head(RunReader reader, Cube cube) {
+            this.reader = reader;
+            this.cube = cube;
+        }
+    }
+}
@@ -10,7 +10,6 @@ import cubicchunks.converter.lib.convert.data.NukkitChunkData;
 import cubicchunks.converter.lib.util.NibbleArray;
 import cubicchunks.converter.lib.util.Utils;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
 /**
@@ -176,7 +175,7 @@ public class Nukkit2AnvilDataConverter implements ChunkDataConverter<NukkitChunk
     @SuppressWarnings("unchecked")
     public AnvilChunkData convert(NukkitChunkData input) {
         try {
-            CompoundTag tag = Utils.readCompressed(new ByteArrayInputStream(input.getData().array()));
+            CompoundTag tag = Utils.readCompressed(Utils.asInputStream(input.getData()));
             boolean dirty = ((ListTag<CompoundTag>) ((CompoundTag) tag.getValue().get("Level")).getValue().get("Sections")).getValue().stream()
                     .mapToInt(Nukkit2AnvilDataConverter::fixSection)
                     .max().orElse(0) != 0;
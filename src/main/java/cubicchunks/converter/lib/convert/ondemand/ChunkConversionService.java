@@ -0,0 +1,273 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.ondemand;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.convert.anvil2nukkit.Anvil2NukkitDataConverter;
+import cubicchunks.converter.lib.convert.cc2anvil.CC2AnvilDataConverter;
+import cubicchunks.converter.lib.convert.data.AnvilChunkData;
+import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
+import cubicchunks.converter.lib.convert.data.NukkitChunkData;
+import cubicchunks.converter.lib.convert.io.CubicChunkReader;
+import cubicchunks.converter.lib.convert.io.RegionCache;
+import cubicchunks.regionlib.impl.MinecraftChunkLocation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts chunks of a cubic chunks world to Anvil or Nukkit when they are requested, instead of converting the whole world
+ * up front. A request loads only the cubes of one world layer of one column. Converted payloads are kept compressed,
+ * exactly as they would be stored in region files, in a cache bounded by their total size. Concurrent requests for the same
+ * chunk wait for a single conversion.
+ *
+ * Cache keys contain the invalidation generation of their column, so requests made after an invalidation never join
+ * a conversion that started before it, and such a conversion isn't kept.
+ *
+ * Returned buffers are independent views of the cached data, callers can move their position freely but must not modify the content.
+ */
+public class ChunkConversionService implements AutoCloseable {
+
+    // cached for chunks that don't exist, so repeated requests for them are hits as well
+    private static final ByteBuffer MISSING = ByteBuffer.allocate(0);
+
+    private final CubicChunkReader reader;
+    // not shared with other readers, so that invalidation closes only this world's region files
+    private final RegionCache regionCache = new RegionCache(RegionCache.DEFAULT_MAX_SIZE);
+    private final CC2AnvilDataConverter anvilConverter = new CC2AnvilDataConverter();
+    private final Anvil2NukkitDataConverter nukkitConverter = new Anvil2NukkitDataConverter();
+    private final Cache<ChunkKey, ByteBuffer> cache;
+
+    private final AtomicLong nextGeneration = new AtomicLong();
+    // generation of all columns since the last invalidateAll
+    private volatile long baseGeneration;
+    // columns invalidated since then, with their generation. Invalidations update it while holding its lock
+    private final Map<ColumnKey, Long> columnGenerations = new ConcurrentHashMap<>();
+
+    /**
+     * @param srcDir the cubic chunks world directory
+     * @param maxCacheBytes maximum total size of cached converted chunks
+     */
+    public ChunkConversionService(Path srcDir, long maxCacheBytes) {
+        this.reader = new CubicChunkReader(srcDir);
+        this.reader.setRegionCache(regionCache);
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxCacheBytes)
+            .weigher((ChunkKey key, ByteBuffer data) -> data.capacity() + 64)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Returns the compressed Anvil chunk at the given position of the world layer, or null if there is no such chunk.
+     * World layer n contains cubes from 16n to 16n+15, see {@code layer [min, max]} directories of a full conversion.
+     */
+    public ByteBuffer getAnvilChunk(Dimension dimension, int layerY, int x, int z) throws IOException {
+        return get(new ChunkKey(Format.ANVIL, dimension, layerY, x, z, generation(dimension, x, z)));
+    }
+
+    /**
+     * Returns the compressed Nukkit chunk at the given position of the world layer, or null if there is no such chunk.
+     */
+    public ByteBuffer getNukkitChunk(Dimension dimension, int layerY, int x, int z) throws IOException {
+        return get(new ChunkKey(Format.NUKKIT, dimension, layerY, x, z, generation(dimension, x, z)));
+    }
+
+    /**
+     * Drops cached conversions of all layers of a column, for when the source world has been modified.
+     * Open region files of the column are closed as well, so that the next request reads the modified data.
+     */
+    public void invalidate(Dimension dimension, int x, int z) {
+        reader.refresh(dimension, x, z);
+        long generation;
+        synchronized (columnGenerations) {
+            generation = nextGeneration.incrementAndGet();
+            columnGenerations.put(new ColumnKey(dimension, x, z), generation);
+        }
+        cache.asMap().keySet().removeIf(key -> key.dimension == dimension && key.x == x && key.z == z && key.generation != generation);
+    }
+
+    public void invalidateAll() {
+        reader.refresh();
+        synchronized (columnGenerations) {
+            baseGeneration = nextGeneration.incrementAndGet();
+            columnGenerations.clear();
+        }
+        cache.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getCachedChunks() {
+        return cache.size();
+    }
+
+    private long generation(Dimension dimension, int x, int z) {
+        // read the column first, invalidateAll clears the columns after increasing the base generation
+        long column = columnGenerations.getOrDefault(new ColumnKey(dimension, x, z), 0L);
+        return Math.max(column, baseGeneration);
+    }
+
+    private ByteBuffer get(ChunkKey key) throws IOException {
+        ByteBuffer data;
+        try {
+            data = cache.get(key, () -> convert(key));
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        if (key.generation != generation(key.dimension, key.x, key.z)) {
+            // invalidated while converting, no later request can use it
+            cache.invalidate(key);
+        }
+        return data == MISSING ? null : data.duplicate();
+    }
+
+    private ByteBuffer convert(ChunkKey key) throws IOException {
+        if (key.format == Format.NUKKIT) {
+            ByteBuffer anvil = get(new ChunkKey(Format.ANVIL, key.dimension, key.layerY, key.x, key.z, key.generation));
+            if (anvil == null) {
+                return MISSING;
+            }
+            AnvilChunkData anvilChunk = new AnvilChunkData(key.dimension, new MinecraftChunkLocation(key.x, key.z, "mca"), anvil, 0);
+            NukkitChunkData nukkit = nukkitConverter.convert(anvilChunk);
+            return compact(nukkit.getData());
+        }
+        int minCubeY = key.layerY << 4;
+        CubicChunksColumnData column = reader.loadColumn(key.dimension, key.x, key.z, minCubeY, minCubeY + 15);
+        if (column == null) {
+            return MISSING;
+        }
+        AnvilChunkData chunk = anvilConverter.convertLayer(column, key.layerY);
+        return chunk == null ? MISSING : compact(chunk.getData());
+    }
+
+    // cached buffers are weighed by capacity, don't keep oversized backing arrays
+    private static ByteBuffer compact(ByteBuffer data) {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0 && data.remaining() == data.capacity()) {
+            return data;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate()).flip();
+        return copy;
+    }
+
+    @Override public void close() throws Exception {
+        cache.invalidateAll();
+        reader.close();
+    }
+
+    private enum Format {
+        ANVIL, NUKKIT
+    }
+
+    private static final class ChunkKey {
+
+        final Format format;
+        final Dimension dimension;
+        final int layerY;
+        final int x;
+        final int z;
+        final long generation;
+
+        ChunkKey(Format format, Dimension dimension, int layerY, int x, int z, long generation) {
+            this.format = format;
+            this.dimension = dimension;
+            this.layerY = layerY;
+            this.x = x;
+            this.z = z;
+            this.generation = generation;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ChunkKey)) {
+                return false;
+            }
+            ChunkKey that = (ChunkKey) o;
+            return format == that.format && dimension == that.dimension && layerY == that.layerY && x == that.x && z == that.z
+                && generation == that.generation;
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(format, dimension, layerY, x, z, generation);
+        }
+    }
+
+    private static final class ColumnKey {
+
+        final Dimension dimension;
+        final int x;
+        final int z;
+
+        ColumnKey(Dimension dimension, int x, int z) {
+            this.dimension = dimension;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ColumnKey)) {
+                return false;
+            }
+            ColumnKey that = (ColumnKey) o;
+            return dimension == that.dimension && x == that.x && z == that.z;
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(dimension, x, z);
+        }
+    }
+}
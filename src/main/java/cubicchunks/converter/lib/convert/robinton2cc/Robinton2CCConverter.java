@@ -26,6 +26,8 @@ package cubicchunks.converter.lib.convert.robinton2cc;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.data.RobintonColumnData;
+import cubicchunks.converter.lib.util.CubeTemplate;
+import cubicchunks.converter.lib.util.UniformSection;
 import net.kyori.nbt.ByteArrayTag;
 import net.kyori.nbt.CompoundTag;
 import net.kyori.nbt.IntArrayTag;
@@ -45,24 +47,55 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.InflaterInputStream;
 
 public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnData, CubicChunksColumnData> {
 
+    private static final CompoundTag LIGHTING_INFO = makeLightingInfo();
+    private static final int MAX_UNIFORM_TEMPLATES = 1024;
+
+    private final CubeTemplate emptyCubeTemplate = new CubeTemplate(pos -> {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TagIO.writeOutputStream(TagTypeMaps.ROBINTON, makeEmpty(pos[0], pos[1], pos[2]), bytes);
+        return bytes.toByteArray();
+    });
+
+    // cubes of a single uniform section and nothing else, keyed by the section signature and the populated flag
+    private final Map<Long, CubeTemplate> uniformCubeTemplates = new ConcurrentHashMap<>();
+
     @Override public CubicChunksColumnData convert(RobintonColumnData input) {
         try {
             Map<Integer, ByteBuffer> newData = new HashMap<>();
             for (int y : input.getCubeData().keySet()) {
                 ByteBuffer buf = input.getCubeData().get(y);
                 if (buf == RobintonSaveSection.EMPTY_BUFFER) {
-                    newData.put(y, makeEmpty(input.getPosition().getEntryX(), y, input.getPosition().getEntryZ()));
+                    newData.put(y, emptyCubeTemplate.create(input.getPosition().getEntryX(), y, input.getPosition().getEntryZ()));
+                    continue;
                 }
                 CompoundTag tag = readCompressed(buf);
 
                 CompoundTag oldLevel = tag.getCompound("Level");
-                CompoundTag newLevel = convertCube(input, oldLevel, y);
+                int x = input.getPosition().getEntryX();
+                int z = input.getPosition().getEntryZ();
+                checkCubeY(oldLevel, y);
+
+                long uniformKey = uniformCubeKey(oldLevel);
+                if (uniformKey != UniformSection.NOT_UNIFORM
+                        && (uniformCubeTemplates.size() < MAX_UNIFORM_TEMPLATES || uniformCubeTemplates.containsKey(uniformKey))) {
+                    CubeTemplate template = uniformCubeTemplates.computeIfAbsent(uniformKey, k -> new CubeTemplate(pos -> {
+                        CompoundTag root = new CompoundTag();
+                        root.put("Level", convertCube(pos[0], pos[1], pos[2], oldLevel, new ListTag(), new ListTag()));
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        TagIO.writeOutputStream(TagTypeMaps.ROBINTON, root, bytes);
+                        return bytes.toByteArray();
+                    }));
+                    newData.put(y, template.create(x, y, z));
+                    continue;
+                }
+                CompoundTag newLevel = convertCube(x, y, z, oldLevel, oldLevel.getList("TileEntities"), oldLevel.getList("Entities"));
 
                 CompoundTag newTag = new CompoundTag();
                 newTag.put("Level", newLevel);
@@ -76,7 +109,7 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
         }
     }
 
-    private ByteBuffer makeEmpty(int x, int y, int z) throws IOException {
+    private static CompoundTag makeEmpty(int x, int y, int z) {
         CompoundTag level = new CompoundTag();
 
         level.putInt("v", 1);
@@ -89,16 +122,44 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
         level.putBoolean("initLightDone", true);
         level.putBoolean("isSurfaceTracked", true);
 
-        level.put("LightingInfo", makeLightingInfo());
+        level.put("LightingInfo", LIGHTING_INFO);
 
 
         CompoundTag root = new CompoundTag();
         root.put("Level", level);
+        return root;
+    }
+
+    /**
+     * Returns a key identifying the converted form of a cube with uniform section and no entities or tile entities,
+     * or {@link UniformSection#NOT_UNIFORM} when the cube has to be converted on its own.
+     */
+    private static long uniformCubeKey(CompoundTag oldLevel) {
+        if (oldLevel.getList("TileEntities").size() != 0 || oldLevel.getList("Entities").size() != 0) {
+            return UniformSection.NOT_UNIFORM;
+        }
+        long signature = UniformSection.signature(oldLevel.getByteArray("Blocks"), null, oldLevel.getByteArray("Data"),
+                oldLevel.getByteArray("BlockLight"), oldLevel.getByteArray("SkyLight"));
+        if (signature == UniformSection.NOT_UNIFORM) {
+            return UniformSection.NOT_UNIFORM;
+        }
+        return isPopulated(oldLevel) ? signature | 1L << 32 : signature;
+    }
+
+    private static boolean isPopulated(CompoundTag oldLevel) {
+        // some old worlds don't appear to have this flag, and populating those chunks again causes weird effects
+        return !oldLevel.contains("TerrainPopulated") || oldLevel.getBoolean("TerrainPopulated");
+    }
 
-        return writeCompressed(root);
+    private static void checkCubeY(CompoundTag oldLevel, int y) {
+        int oldY = oldLevel.getInt("yPos");
+        if (oldY != y) {
+            System.out.println("Stored Y coordinate " + oldY + " doesn't match region derived cube NBT position " +
+                    y + ", Using region-derived position");
+        }
     }
 
-    private CompoundTag convertCube(RobintonColumnData input, CompoundTag oldLevel, int y) {
+    private static CompoundTag convertCube(int x, int y, int z, CompoundTag oldLevel, ListTag tileEntities, ListTag entities) {
         CompoundTag newLevel = new CompoundTag();
         /*
          * Robinton's NBT:
@@ -138,17 +199,11 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
          *  |- LightingInfo
          *   |- LastHeightMap
          */
-        int oldY = oldLevel.getInt("yPos");
-        if (oldY != y) {
-            System.out.println("Stored Y coordinate " + oldY + " doesn't match region derived cube NBT position " +
-                    y + ", Using region-derived position");
-        }
         newLevel.putInt("v", 1);
-        newLevel.putInt("x", input.getPosition().getEntryX());
+        newLevel.putInt("x", x);
         newLevel.putInt("y", y);
-        newLevel.putInt("z", input.getPosition().getEntryZ());
-        // some old worlds don't appear to have this flag, and populating those chunks again causes weird effects
-        newLevel.putBoolean("populated", !oldLevel.contains("TerrainPopulated") || oldLevel.getBoolean("TerrainPopulated"));
+        newLevel.putInt("z", z);
+        newLevel.putBoolean("populated", isPopulated(oldLevel));
         newLevel.putBoolean("fullyPopulated", true);
         newLevel.putBoolean("initLightDone", true);
         newLevel.putBoolean("isSurfaceTracked", false);
@@ -164,13 +219,16 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
         sections.add(section);
 
         newLevel.put("Sections", sections);
-        newLevel.put("TileEntities", oldLevel.getList("TileEntities"));
-        newLevel.put("Entities", oldLevel.getList("Entities"));
-        newLevel.put("LightingInfo", makeLightingInfo());
+        newLevel.put("TileEntities", tileEntities);
+        newLevel.put("Entities", entities);
+        newLevel.put("LightingInfo", LIGHTING_INFO);
         return newLevel;
     }
 
-    private ByteArrayTag flipXYFull(byte[] dataIn) {
+    private static ByteArrayTag flipXYFull(byte[] dataIn) {
+        if (UniformSection.uniformBlockId(dataIn, null) >= 0) {
+            return new ByteArrayTag(dataIn.clone()); // flipping uniform data doesn't change it
+        }
         byte[] newData = new byte[4096];
         for (int i = 0; i < 4096; i++) {
             int x = i & 15;
@@ -184,7 +242,10 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
         return new ByteArrayTag(newData);
     }
 
-    private ByteArrayTag flipXYNibble(byte[] dataIn) {
+    private static ByteArrayTag flipXYNibble(byte[] dataIn) {
+        if (UniformSection.uniformNibble(dataIn) >= 0) {
+            return new ByteArrayTag(dataIn.clone());
+        }
         byte[] newData = new byte[2048];
         for (int newIdx = 0; newIdx < 4096; newIdx++) {
             int x = newIdx & 15;
@@ -206,7 +267,7 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
         return new ByteArrayTag(newData);
     }
 
-    private CompoundTag makeLightingInfo() {
+    private static CompoundTag makeLightingInfo() {
         int[] arr = new int[256];
         Arrays.fill(arr, Integer.MIN_VALUE / 2);
         IntArrayTag heightmap = new IntArrayTag(arr);
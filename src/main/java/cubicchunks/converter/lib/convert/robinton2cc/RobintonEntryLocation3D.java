@@ -27,15 +27,25 @@ import cubicchunks.regionlib.api.region.key.IKey;
 import cubicchunks.regionlib.api.region.key.IKeyProvider;
 import cubicchunks.regionlib.api.region.key.RegionKey;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class RobintonEntryLocation3D implements IKey<RobintonEntryLocation3D> {
 
     private static final int LOC_BITS = 5;
     private static final int LOC_BITMASK = (1 << LOC_BITS) - 1;
     public static final int ENTRIES_PER_REGION = (1 << LOC_BITS) * (1 << LOC_BITS);
 
+    private static final Pattern REGION_NAME = Pattern.compile("r2\\.(-?\\d+)\\.(-?\\d+)\\.(-?\\d+)\\.mcr");
+    // cubes are usually accessed region by region, so the last key is almost always the right one.
+    // Also used for parsing region names, which happens for every entry loaded from a region
+    private static final ThreadLocal<LastRegionKey> LAST_REGION_KEY = ThreadLocal.withInitial(LastRegionKey::new);
+
     private final int entryX;
     private final int entryY;
     private final int entryZ;
+    // set when created from a region key, so it doesn't have to be computed again
+    private RegionKey regionKey;
 
     public RobintonEntryLocation3D(int entryX, int entryY, int entryZ) {
         this.entryX = entryX;
@@ -43,6 +53,50 @@ public class RobintonEntryLocation3D implements IKey<RobintonEntryLocation3D> {
         this.entryZ = entryZ;
     }
 
+    /**
+     * Returns region x, y and z coordinates of the given region file name, or null if it's not a valid region name.
+     * The result may be shared and must not be modified.
+     */
+    public static int[] parseRegion(String regionName) {
+        LastRegionKey last = LAST_REGION_KEY.get();
+        if (regionName.equals(last.name)) {
+            if (last.coords == null) {
+                last.coords = new int[]{last.x, last.y, last.z};
+            }
+            return last.coords;
+        }
+        Matcher matcher = REGION_NAME.matcher(regionName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        int[] region;
+        try {
+            region = new int[]{
+                Integer.parseInt(matcher.group(1)),
+                Integer.parseInt(matcher.group(2)),
+                Integer.parseInt(matcher.group(3))
+            };
+        } catch (NumberFormatException e) {
+            // out of int range
+            return null;
+        }
+        last.x = region[0];
+        last.y = region[1];
+        last.z = region[2];
+        last.name = regionName;
+        last.key = new RegionKey(regionName);
+        last.coords = region;
+        return region;
+    }
+
+    public static int entryX(int regionX, int id) {
+        return regionX << LOC_BITS | (id & LOC_BITMASK);
+    }
+
+    public static int entryZ(int regionZ, int id) {
+        return regionZ << LOC_BITS | (id >>> LOC_BITS);
+    }
+
     public int getEntryX() {
         return entryX;
     }
@@ -83,11 +137,24 @@ public class RobintonEntryLocation3D implements IKey<RobintonEntryLocation3D> {
     }
 
     @Override public RegionKey getRegionKey() {
+        RegionKey key = regionKey;
+        if (key != null) {
+            return key;
+        }
         int regX = entryX >> LOC_BITS;
         int regY = entryY;
         int regZ = entryZ >> LOC_BITS;
 
-        return new RegionKey("r2." + regX + "." + regY + "." + regZ + ".mcr");
+        LastRegionKey last = LAST_REGION_KEY.get();
+        if (last.key == null || last.x != regX || last.y != regY || last.z != regZ) {
+            last.x = regX;
+            last.y = regY;
+            last.z = regZ;
+            last.name = "r2." + regX + "." + regY + "." + regZ + ".mcr";
+            last.key = new RegionKey(last.name);
+            last.coords = null;
+        }
+        return regionKey = last.key;
     }
 
     @Override public int getId() {
@@ -105,21 +172,13 @@ public class RobintonEntryLocation3D implements IKey<RobintonEntryLocation3D> {
     public static class Provider implements IKeyProvider<RobintonEntryLocation3D> {
 
         @Override public RobintonEntryLocation3D fromRegionAndId(RegionKey regionKey, int id) throws IllegalArgumentException {
-            if (!isValid(regionKey)) {
+            int[] region = parseRegion(regionKey.getName());
+            if (region == null) {
                 throw new IllegalArgumentException("Invalid name " + regionKey.getName());
             }
-            String[] s = regionKey.getName().split("\\.");
-
-            String x = s[1];
-            String y = s[2];
-            String z = s[3];
-            int relativeX = id & LOC_BITMASK;
-            int relativeZ = id >>> LOC_BITS;
-
-            return new RobintonEntryLocation3D(
-                    Integer.parseInt(x) << LOC_BITS | relativeX,
-                    Integer.parseInt(y),
-                    Integer.parseInt(z) << LOC_BITS | relativeZ);
+            RobintonEntryLocation3D loc = new RobintonEntryLocation3D(entryX(region[0], id), region[1], entryZ(region[2], id));
+            loc.regionKey = regionKey;
+            return loc;
         }
 
         @Override public int getKeyCount(RegionKey key) {
@@ -127,7 +186,17 @@ public class RobintonEntryLocation3D implements IKey<RobintonEntryLocation3D> {
         }
 
         @Override public boolean isValid(RegionKey key) {
-            return key.getName().matches("r2.-?\\d+\\.-?\\d+\\.-?\\d+\\.mcr");
+            return parseRegion(key.getName()) != null;
         }
     }
+
+    private static final class LastRegionKey {
+        int x;
+        int y;
+        int z;
+        String name;
+        RegionKey key;
+        // x, y and z, created when needed
+        int[] coords;
+    }
 }
@@ -23,15 +23,17 @@
  */
 package cubicchunks.converter.lib.convert.robinton2cc;
 
+import cubicchunks.converter.lib.convert.io.CachingRegionProvider;
+import cubicchunks.converter.lib.convert.io.RegionCache;
 import cubicchunks.regionlib.api.region.IRegionProvider;
 import cubicchunks.regionlib.api.storage.SaveSection;
 import cubicchunks.regionlib.lib.Region;
-import cubicchunks.regionlib.lib.provider.SharedCachedRegionProvider;
 import cubicchunks.regionlib.lib.provider.SimpleRegionProvider;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.function.Supplier;
 
 public class RobintonSaveSection extends SaveSection<RobintonSaveSection, RobintonEntryLocation3D> {
 
@@ -47,8 +49,8 @@ public class RobintonSaveSection extends SaveSection<RobintonSaveSection, Robint
         super(Collections.singletonList(regionProvider));
     }
 
-    public static RobintonSaveSection createAt(Path directory) {
-        return new RobintonSaveSection(new SharedCachedRegionProvider<>(
+    public static RobintonSaveSection createAt(Path directory, Supplier<RegionCache> cache) {
+        return new RobintonSaveSection(new CachingRegionProvider<>(
                 new SimpleRegionProvider<>(new RobintonEntryLocation3D.Provider(), directory, (keyProv, r) ->
                         new Region.Builder<RobintonEntryLocation3D>()
                                 .addSpecialSectorMapEntry(EMPTY_MARKER, 0xFFFFFFFF, loc -> EMPTY_BUFFER, RobintonSaveSection::throwingErrorHandler)
@@ -57,7 +59,7 @@ public class RobintonSaveSection extends SaveSection<RobintonSaveSection, Robint
                                 .setKeyProvider(keyProv)
                                 .setSectorSize(256)
                                 .build()
-                )
+                ), cache
         ));
     }
 
@@ -0,0 +1,149 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import cubicchunks.regionlib.util.CheckedFunction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uncompressed NBT image of a cube that differs between instances only by its coordinates, and optionally by the content
+ * of one int array of fixed length. The payloads are patched into a copy of the image, which is then compressed
+ * with the fastest deflate level.
+ */
+public final class CubeTemplate {
+
+    // distinct values that can't occur anywhere else in the serialized tag
+    private static final int MARKER_X = 0x7F3C1A01;
+    private static final int MARKER_Y = 0x7F3C1A02;
+    private static final int MARKER_Z = 0x7F3C1A03;
+    private static final int MARKER_ARRAY = 0x7F3D0000;
+
+    private final byte[] image;
+    private final int xOffset;
+    private final int yOffset;
+    private final int zOffset;
+    private final int arrayLength;
+    private final int arrayOffset;
+
+    /**
+     * @param encoder writes the uncompressed cube NBT for the given x, y and z coordinates, in that order
+     */
+    public CubeTemplate(CheckedFunction<int[], byte[], IOException> encoder) {
+        this(0, encoder);
+    }
+
+    /**
+     * @param arrayLength length of the patched int array, 0 if there is none
+     * @param encoder writes the uncompressed cube NBT for the given x, y and z coordinates, followed by
+     *        the content of the int array
+     */
+    public CubeTemplate(int arrayLength, CheckedFunction<int[], byte[], IOException> encoder) {
+        int[] markers = new int[3 + arrayLength];
+        markers[0] = MARKER_X;
+        markers[1] = MARKER_Y;
+        markers[2] = MARKER_Z;
+        for (int i = 0; i < arrayLength; i++) {
+            markers[3 + i] = MARKER_ARRAY + i;
+        }
+        try {
+            this.image = encoder.apply(markers);
+        } catch (IOException impossible) {
+            throw new Error("Writing to memory doesn't throw IOException", impossible);
+        }
+        this.xOffset = find(image, MARKER_X);
+        this.yOffset = find(image, MARKER_Y);
+        this.zOffset = find(image, MARKER_Z);
+        this.arrayLength = arrayLength;
+        this.arrayOffset = arrayLength == 0 ? -1 : find(image, MARKER_ARRAY);
+        for (int i = 1; i < arrayLength; i++) {
+            if (arrayOffset + i * 4 + 4 > image.length || getInt(image, arrayOffset + i * 4) != MARKER_ARRAY + i) {
+                throw new IllegalStateException("Array markers are not consecutive in the template");
+            }
+        }
+    }
+
+    public ByteBuffer create(int x, int y, int z) throws IOException {
+        return create(x, y, z, null);
+    }
+
+    /**
+     * @param array content of the patched int array, must have the length given to the constructor
+     */
+    public ByteBuffer create(int x, int y, int z, int[] array) throws IOException {
+        byte[] data = image.clone();
+        putInt(data, xOffset, x);
+        putInt(data, yOffset, y);
+        putInt(data, zOffset, z);
+        if (arrayLength != 0) {
+            if (array == null || array.length != arrayLength) {
+                throw new IllegalArgumentException("Expected an array of length " + arrayLength);
+            }
+            for (int i = 0; i < arrayLength; i++) {
+                putInt(data, arrayOffset + i * 4, array[i]);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        GZIPOutputStream out = new GZIPOutputStream(bytes, data.length) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        out.write(data);
+        out.close();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static int find(byte[] data, int value) {
+        int found = -1;
+        for (int i = 0; i <= data.length - 4; i++) {
+            if (getInt(data, i) == value) {
+                if (found >= 0) {
+                    throw new IllegalStateException("Coordinate marker " + Integer.toHexString(value) + " is not unique in the template");
+                }
+                found = i;
+            }
+        }
+        if (found < 0) {
+            throw new IllegalStateException("Coordinate marker " + Integer.toHexString(value) + " not found in the template");
+        }
+        return found;
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import cubicchunks.converter.lib.conf.ConverterConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * Copies the non-chunk files of a world (playerdata, data, stats, ...) in the background on a small bounded pool,
+ * so that it can run while chunks are being converted.
+ */
+public class LevelDataCopier {
+
+    // threads copying files
+    public static final String COPY_THREADS = "levelDataCopyThreads";
+
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final Path srcDir;
+    private final Path dstDir;
+    private final Predicate<Path> excluded;
+    private final ConverterConfig config;
+
+    private CompletableFuture<List<Path>> copied;
+
+    /**
+     * @param excluded tested with paths inside srcDir, excluded directories are skipped with all their contents
+     */
+    public LevelDataCopier(Path srcDir, Path dstDir, Predicate<Path> excluded) {
+        this.srcDir = srcDir;
+        this.dstDir = dstDir;
+        this.excluded = excluded;
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put(COPY_THREADS, THREADS);
+        this.config = new ConverterConfig(defaults);
+    }
+
+    /**
+     * Copier options, for level info converters to return from their own {@code getConfig}.
+     * Changes take effect when the copy is started.
+     */
+    public ConverterConfig getConfig() {
+        return config;
+    }
+
+    public synchronized void start() {
+        if (copied != null) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, config.getInt(COPY_THREADS)), r -> {
+            Thread t = new Thread(r, "Level data copy");
+            t.setDaemon(true);
+            return t;
+        });
+        copied = CompletableFuture.supplyAsync(this::createDirectories, executor).thenCompose(files -> {
+            List<CompletableFuture<Void>> copies = new ArrayList<>(files.size());
+            for (Path file : files) {
+                copies.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        Files.copy(srcDir.resolve(file), dstDir.resolve(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            }
+            return CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[0])).thenApply(v -> files);
+        });
+        copied.whenComplete((files, error) -> executor.shutdown());
+    }
+
+    /**
+     * Waits for the copy started by {@link #start()} to finish, starting it first if needed.
+     *
+     * @return paths of all copied files, relative to the source and destination directories
+     */
+    public List<Path> await() throws IOException {
+        start();
+        try {
+            return copied.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Makes the given files from fromDir available in toDir as hardlinks, falls back to copying them when the file
+     * system doesn't support links between the two directories.
+     */
+    public static void link(Path fromDir, Path toDir, List<Path> files) throws IOException {
+        boolean canLink = true;
+        for (Path file : files) {
+            Path src = fromDir.resolve(file);
+            Path dst = toDir.resolve(file);
+            Files.createDirectories(dst.getParent());
+            if (canLink) {
+                try {
+                    Files.deleteIfExists(dst);
+                    Files.createLink(dst, src);
+                    continue;
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    canLink = false;
+                }
+            }
+            Files.copy(src, dst, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    // the directory tree is created up front, so files can then be copied in any order
+    private List<Path> createDirectories() {
+        List<Path> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(srcDir, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(srcDir) && excluded.test(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    Files.createDirectories(dstDir.resolve(srcDir.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!excluded.test(file)) {
+                        files.add(srcDir.relativize(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Collections.unmodifiableList(files);
+    }
+}
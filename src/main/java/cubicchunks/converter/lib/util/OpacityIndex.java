@@ -0,0 +1,131 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Cubic chunks column OpacityIndex, encoded as 256 entries (x | z << 4) of: int minY, int maxY,
+ * unsigned short segment count, followed by that many packed segments (pos << 8 | opacity).
+ */
+public final class OpacityIndex {
+
+    public static final int COLUMNS = 256;
+
+    private static final int ENTRY_HEADER_BYTES = 4 + 4 + 2;
+
+    private final int[] minY;
+    private final int[] maxY;
+    // segments of column i are segments[segmentStart[i]] until segments[segmentStart[i + 1]]
+    private final int[] segmentStart;
+    private final int[] segments;
+
+    private OpacityIndex(int[] minY, int[] maxY, int[] segmentStart, int[] segments) {
+        this.minY = minY;
+        this.maxY = maxY;
+        this.segmentStart = segmentStart;
+        this.segments = segments;
+    }
+
+    /**
+     * Decodes the OpacityIndex from the remaining bytes of the buffer, without changing the buffer position.
+     *
+     * @throws BufferUnderflowException if the data is truncated
+     */
+    public static OpacityIndex decode(ByteBuffer data) {
+        ByteBuffer buf = data.duplicate(); // big endian
+        int[] minY = new int[COLUMNS];
+        int[] maxY = new int[COLUMNS];
+        int[] segmentStart = new int[COLUMNS + 1];
+
+        // first pass for sizes, so the segments can go into a single array
+        int pos = buf.position();
+        int total = 0;
+        for (int i = 0; i < COLUMNS; i++) {
+            if (pos + ENTRY_HEADER_BYTES > buf.limit()) {
+                throw new BufferUnderflowException();
+            }
+            minY[i] = buf.getInt(pos);
+            maxY[i] = buf.getInt(pos + 4);
+            int count = buf.getShort(pos + 8) & 0xFFFF;
+            segmentStart[i] = total;
+            total += count;
+            pos += ENTRY_HEADER_BYTES + count * 4;
+        }
+        segmentStart[COLUMNS] = total;
+        if (pos > buf.limit()) {
+            throw new BufferUnderflowException();
+        }
+
+        int[] segments = new int[total];
+        pos = buf.position();
+        for (int i = 0; i < COLUMNS; i++) {
+            pos += ENTRY_HEADER_BYTES;
+            for (int j = segmentStart[i], end = segmentStart[i + 1]; j < end; j++, pos += 4) {
+                segments[j] = buf.getInt(pos);
+            }
+        }
+        return new OpacityIndex(minY, maxY, segmentStart, segments);
+    }
+
+    /**
+     * Encodes an OpacityIndex without any segments, which cubic chunks rebuilds when the column is loaded.
+     *
+     * @param maxY top block y for each of the 256 columns
+     */
+    public static byte[] encodeWithoutSegments(int[] maxY) {
+        byte[] data = new byte[COLUMNS * ENTRY_HEADER_BYTES];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int i = 0; i < COLUMNS; i++) {
+            buf.putInt(0); // minY
+            buf.putInt(maxY[i]);
+            buf.putShort((short) 0); // no segments
+        }
+        return data;
+    }
+
+    public int getMinY(int column) {
+        return minY[column];
+    }
+
+    /**
+     * @return y coordinate of the top non-transparent block in the column
+     */
+    public int getTopBlockY(int column) {
+        return maxY[column];
+    }
+
+    public int getSegmentCount(int column) {
+        return segmentStart[column + 1] - segmentStart[column];
+    }
+
+    public int getSegmentPos(int column, int segment) {
+        return segments[segmentStart[column] + segment] >> 8;
+    }
+
+    public int getSegmentOpacity(int column, int segment) {
+        return segments[segmentStart[column] + segment] & 0xFF;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+/**
+ * Detection of sections made of a single block state with uniform light, like flat world layers, air and stone fill.
+ * Such a section is fully described by a small signature, so converted cubes containing one can be shared.
+ */
+public final class UniformSection {
+
+    public static final long NOT_UNIFORM = -1;
+
+    private static final int BLOCKS = 4096;
+    private static final int NIBBLES = BLOCKS / 2;
+
+    private UniformSection() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns a signature of the section content, or {@link #NOT_UNIFORM}. The signature holds the block id in bits 0-11,
+     * metadata in bits 12-15, block light in 16-19, sky light in 20-23, and the presence of Add and SkyLight arrays
+     * in bits 24 and 25.
+     *
+     * @param add the Add array, or null if there is none
+     * @param skyLight the SkyLight array, or null if there is none
+     */
+    public static long signature(byte[] blocks, byte[] add, byte[] data, byte[] blockLight, byte[] skyLight) {
+        if (data == null || blockLight == null) {
+            return NOT_UNIFORM;
+        }
+        int id = uniformBlockId(blocks, add);
+        int meta = uniformNibble(data);
+        int light = uniformNibble(blockLight);
+        int sky = skyLight == null ? 0 : uniformNibble(skyLight);
+        if (id < 0 || meta < 0 || light < 0 || sky < 0) {
+            return NOT_UNIFORM;
+        }
+        return id
+                | meta << 12
+                | light << 16
+                | sky << 20
+                | (add == null ? 0L : 1L << 24)
+                | (skyLight == null ? 0L : 1L << 25);
+    }
+
+    /**
+     * Returns the block id of every block in the section, or -1 if they are not all the same.
+     *
+     * @param add the Add array, or null if there is none
+     */
+    public static int uniformBlockId(byte[] blocks, byte[] add) {
+        if (blocks == null || !isUniform(blocks, BLOCKS)) {
+            return -1;
+        }
+        int ext = add == null ? 0 : uniformNibble(add);
+        return ext < 0 ? -1 : blocks[0] & 0xFF | ext << 8;
+    }
+
+    /**
+     * Returns the value of every nibble in the array, or -1 if they are not all the same.
+     */
+    public static int uniformNibble(byte[] nibbles) {
+        if (nibbles == null || !isUniform(nibbles, NIBBLES)) {
+            return -1;
+        }
+        int value = nibbles[0] & 0xF;
+        return (nibbles[0] >>> 4 & 0xF) == value ? value : -1;
+    }
+
+    private static boolean isUniform(byte[] array, int length) {
+        if (array.length != length) {
+            return false;
+        }
+        byte first = array[0];
+        for (int i = 1; i < length; i++) {
+            if (array[i] != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -31,6 +31,7 @@ import cubicchunks.regionlib.util.CheckedFunction;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -171,6 +172,38 @@ public class Utils {
         Files.copy(srcFile, dstFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
     }
 
+    /**
+     * Returns a stream reading the remaining bytes of the buffer. Works for direct and memory mapped buffers too,
+     * the buffer position is not changed.
+     */
+    public static InputStream asInputStream(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            return new ByteArrayInputStream(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        }
+        ByteBuffer data = buf.duplicate();
+        return new InputStream() {
+            @Override public int read() {
+                return data.hasRemaining() ? data.get() & 0xFF : -1;
+            }
+
+            @Override public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!data.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, data.remaining());
+                data.get(b, off, count);
+                return count;
+            }
+
+            @Override public int available() {
+                return data.remaining();
+            }
+        };
+    }
+
     public static CompoundTag readCompressed(InputStream is) throws IOException {
         int i = is.read();
         BufferedInputStream data;
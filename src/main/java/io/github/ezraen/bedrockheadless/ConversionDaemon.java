@@ -0,0 +1,376 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.ezraen.bedrockheadless;
+
+import cubicchunks.converter.lib.IProgressListener;
+import cubicchunks.converter.lib.Registry;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.ChunkDataConverter;
+import cubicchunks.converter.lib.convert.ChunkDataReader;
+import cubicchunks.converter.lib.convert.ChunkDataWriter;
+import cubicchunks.converter.lib.convert.LevelInfoConverter;
+import cubicchunks.converter.lib.convert.WorldConverter;
+import cubicchunks.converter.lib.convert.io.BaseMinecraftReader;
+import cubicchunks.converter.lib.util.LevelDataCopier;
+import cubicchunks.converter.lib.util.Utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Long running converter that takes jobs from a spool directory, so that many small worlds don't each pay for JVM startup,
+ * class loading and JIT warmup. Jobs are properties files dropped into {@code incoming} with a {@code .job} extension,
+ * preferably written elsewhere and moved in. A job is moved to {@code running} while converting, and then to {@code done},
+ * or to {@code failed} together with a {@code .error} file. Creating a file named {@code stop} in the spool directory
+ * makes the daemon finish running jobs and exit.
+ *
+ * Job properties:
+ * <ul>
+ *     <li>{@code source} - source world directory</li>
+ *     <li>{@code target} - output directory</li>
+ *     <li>{@code inputFormat}, {@code outputFormat} - converter names from {@link Registry}. When not set, the cubic chunks
+ *     to Nukkit conversion of {@link Hijack} is done</li>
+ *     <li>any other property is a converter option, like on the command line. Thread count options are ignored,
+ *     they are set from the daemon's budget</li>
+ * </ul>
+ *
+ * Several jobs run at once, a job is only claimed when a job slot is free, and otherwise stays in {@code incoming}.
+ * The threads of the CPU budget are split evenly between job slots, and each job reserves an estimate of its memory use
+ * from the memory budget before it starts, so big worlds wait for others to finish.
+ */
+public class ConversionDaemon {
+
+    public static final String JOBS = "daemonJobs";
+    public static final String THREADS = "daemonThreads";
+    public static final String MEMORY_BUDGET_MB = "daemonMemoryMB";
+    public static final String POLL_MILLIS = "daemonPollMillis";
+
+    private static final String SOURCE = "source";
+    private static final String TARGET = "target";
+    private static final String INPUT_FORMAT = "inputFormat";
+    private static final String OUTPUT_FORMAT = "outputFormat";
+
+    // set by the daemon from its thread budget, jobs can't override them
+    private static final String[] BUDGET_OPTIONS = {
+        WorldConverter.CONVERT_THREADS, WorldConverter.IO_THREADS, WorldConverter.FORK_JOIN_THREADS,
+        WorldConverter.ADAPTIVE_THREADS, WorldConverter.MAX_CONVERT_THREADS, WorldConverter.MAX_IO_THREADS,
+        WorldConverter.VIRTUAL_THREAD_IO, WorldConverter.VIRTUAL_IO_CONCURRENCY,
+        LevelDataCopier.COPY_THREADS, BaseMinecraftReader.HEADER_SCAN_THREADS
+    };
+
+    private static final String JOB_EXTENSION = ".job";
+    private static final int MIN_JOB_MEMORY_MB = 64;
+    // rough estimate of heap used per MB of source world
+    private static final int MEMORY_PER_SOURCE_MB = 2;
+
+    private final Path incoming;
+    private final Path running;
+    private final Path done;
+    private final Path failed;
+    private final Path stopFile;
+
+    private final ConverterConfig daemonConfig;
+    private final Map<String, String> jobDefaults;
+    private final int threadsPerJob;
+    private final int memoryBudgetMB;
+    private final long pollMillis;
+    private final Semaphore memory;
+    private final Semaphore slots;
+    private final ExecutorService jobs;
+
+    public ConversionDaemon(Path spoolDir, ConverterConfig daemonConfig, Map<String, String> jobDefaults) throws IOException {
+        this.incoming = spoolDir.resolve("incoming");
+        this.running = spoolDir.resolve("running");
+        this.done = spoolDir.resolve("done");
+        this.failed = spoolDir.resolve("failed");
+        this.stopFile = spoolDir.resolve("stop");
+        for (Path dir : new Path[]{incoming, running, done, failed}) {
+            Utils.createDirectories(dir);
+        }
+        this.daemonConfig = daemonConfig;
+        this.jobDefaults = jobDefaults;
+
+        int jobSlots = Math.max(1, daemonConfig.getInt(JOBS));
+        this.threadsPerJob = Math.max(1, daemonConfig.getInt(THREADS) / jobSlots);
+        this.memoryBudgetMB = Math.max(MIN_JOB_MEMORY_MB, daemonConfig.getInt(MEMORY_BUDGET_MB));
+        this.pollMillis = daemonConfig.getLong(POLL_MILLIS);
+        this.memory = new Semaphore(memoryBudgetMB, true);
+        this.slots = new Semaphore(jobSlots);
+        this.jobs = Executors.newFixedThreadPool(jobSlots, r -> new Thread(r, "Conversion job"));
+    }
+
+    public static ConverterConfig createDefaultConfig() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put(JOBS, Math.max(1, cpus / 4));
+        defaults.put(THREADS, cpus);
+        defaults.put(MEMORY_BUDGET_MB, (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024) * 3 / 4));
+        defaults.put(POLL_MILLIS, 500L);
+        return new ConverterConfig(defaults);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Needs arguments: <spool directory> [option=value...]");
+            return;
+        }
+        ConverterConfig daemonConfig = createDefaultConfig();
+        Map<String, String> jobDefaults = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                System.out.println("Ignoring option " + args[i] + ", expected option=value");
+                continue;
+            }
+            if (daemonConfig.getDefaults().containsKey(option[0])) {
+                daemonConfig.set(option[0], option[1]);
+            } else {
+                jobDefaults.put(option[0], option[1]);
+            }
+        }
+        ConversionDaemon daemon = new ConversionDaemon(Paths.get(args[0]), daemonConfig, jobDefaults);
+        try {
+            daemon.run();
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted, waiting for running jobs");
+        } finally {
+            daemon.shutdown();
+        }
+    }
+
+    /**
+     * Runs until the stop file appears. Jobs left in {@code running} by a previous daemon are moved to {@code failed}.
+     */
+    public void run() throws IOException, InterruptedException {
+        for (Path stale : listJobs(running)) {
+            fail(stale, "The daemon was stopped while the job was running, output may be incomplete");
+        }
+        System.out.println("Conversion daemon waiting for jobs in " + incoming + ", " + daemonConfig.getInt(JOBS) + " at once, "
+            + threadsPerJob + " threads and up to " + memoryBudgetMB + "MB each");
+        while (!Files.exists(stopFile)) {
+            for (Path job : listJobs(incoming)) {
+                // jobs that can't start yet stay in incoming, so a stopped daemon never leaves them in running
+                if (!slots.tryAcquire()) {
+                    break;
+                }
+                Path claimed = running.resolve(job.getFileName());
+                try {
+                    Files.move(job, claimed, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // removed or still being moved in, try again on the next poll
+                    slots.release();
+                    continue;
+                }
+                jobs.execute(() -> {
+                    try {
+                        runJob(claimed);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            Thread.sleep(pollMillis);
+        }
+        Files.deleteIfExists(stopFile);
+    }
+
+    public void shutdown() {
+        jobs.shutdown();
+        try {
+            jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            jobs.shutdownNow();
+        }
+    }
+
+    private static List<Path> listJobs(Path dir) throws IOException {
+        List<Path> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + JOB_EXTENSION)) {
+            for (Path file : files) {
+                jobs.add(file);
+            }
+        }
+        // oldest first
+        jobs.sort(Comparator.comparing(file -> {
+            try {
+                return Files.getLastModifiedTime(file);
+            } catch (IOException e) {
+                return null;
+            }
+        }, Comparator.nullsLast(Comparator.naturalOrder())));
+        return jobs;
+    }
+
+    private void runJob(Path job) {
+        String name = job.getFileName().toString();
+        int acquiredMB = 0;
+        try {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(job)) {
+                props.load(in);
+            }
+            Map<String, String> options = new HashMap<>(jobDefaults);
+            for (String key : props.stringPropertyNames()) {
+                options.put(key, props.getProperty(key).trim());
+            }
+            String source = options.remove(SOURCE);
+            String target = options.remove(TARGET);
+            if (source == null || target == null) {
+                throw new IllegalArgumentException("Job needs both " + SOURCE + " and " + TARGET + " properties");
+            }
+            String inputFormat = options.remove(INPUT_FORMAT);
+            String outputFormat = options.remove(OUTPUT_FORMAT);
+            if ((inputFormat == null) != (outputFormat == null)) {
+                throw new IllegalArgumentException("Job needs either both or none of " + INPUT_FORMAT + " and " + OUTPUT_FORMAT);
+            }
+
+            for (String key : BUDGET_OPTIONS) {
+                if (options.remove(key) != null) {
+                    System.out.println("Job " + name + ": ignoring " + key + ", threads are set by the daemon");
+                }
+            }
+
+            ConverterConfig config = WorldConverter.createDefaultConfig();
+            options.forEach(config::set);
+            applyThreadBudget(config);
+
+            int reservedMB = estimateMemoryMB(Paths.get(source));
+            memory.acquire(reservedMB);
+            acquiredMB = reservedMB;
+
+            System.out.println("Starting job " + name);
+            long start = System.nanoTime();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            IProgressListener progress = new IProgressListener() {
+                @Override public void update(Void aVoid) {
+                }
+
+                @Override public ErrorHandleResult error(Throwable t) {
+                    error.compareAndSet(null, t);
+                    return ErrorHandleResult.STOP_DISCARD;
+                }
+            };
+            if (inputFormat == null) {
+                Path tempDir = Files.createTempDirectory(Paths.get(target).toAbsolutePath().getParent(), "temp-");
+                try {
+                    Hijack.convert(Paths.get(source), Paths.get(target), tempDir, config, progress);
+                } finally {
+                    if (Files.exists(tempDir)) {
+                        Utils.rm(tempDir);
+                    }
+                }
+            } else {
+                convert(Paths.get(source), Paths.get(target), inputFormat, outputFormat, config, progress);
+            }
+            if (error.get() != null) {
+                throw error.get();
+            }
+            Files.move(job, done.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            System.out.printf("Job %s done in %.1fs%n", name, (System.nanoTime() - start) / 1e9);
+        } catch (Throwable t) {
+            StringWriter trace = new StringWriter();
+            t.printStackTrace(new PrintWriter(trace));
+            System.err.println("Job " + name + " failed: " + t);
+            fail(job, trace.toString());
+            if (t instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            if (acquiredMB > 0) {
+                memory.release(acquiredMB);
+            }
+        }
+    }
+
+    /**
+     * Splits the job's share of the daemon threads between conversion and IO, so that a job never runs more threads
+     * than its share. Adaptive pool sizing and virtual thread IO are disabled, they would run more threads than the budget.
+     * Level data copying and region header scanning get pools of their own, sized from the share as well.
+     */
+    private void applyThreadBudget(ConverterConfig config) {
+        int ioThreads = Math.max(1, threadsPerJob / 2);
+        int convertThreads = Math.max(1, threadsPerJob - ioThreads);
+        config.set(WorldConverter.CONVERT_THREADS, convertThreads);
+        config.set(WorldConverter.IO_THREADS, ioThreads);
+        config.set(WorldConverter.MAX_CONVERT_THREADS, convertThreads);
+        config.set(WorldConverter.MAX_IO_THREADS, ioThreads);
+        config.set(WorldConverter.ADAPTIVE_THREADS, false);
+        config.set(WorldConverter.FORK_JOIN_THREADS, threadsPerJob);
+        config.set(WorldConverter.VIRTUAL_THREAD_IO, false);
+        config.set(WorldConverter.VIRTUAL_IO_CONCURRENCY, ioThreads);
+        config.set(LevelDataCopier.COPY_THREADS, ioThreads);
+        config.set(BaseMinecraftReader.HEADER_SCAN_THREADS, threadsPerJob);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void convert(Path src, Path dst, String inputFormat, String outputFormat, ConverterConfig config,
+        IProgressListener progress) throws IOException {
+        new WorldConverter<Object, Object>(
+            (LevelInfoConverter<Object, Object>) Registry.getLevelConverter(inputFormat, outputFormat).apply(src, dst),
+            (ChunkDataReader<Object>) Registry.getReader(inputFormat).apply(src),
+            (ChunkDataConverter<Object, Object>) Registry.getConverter(inputFormat, outputFormat).get(),
+            (ChunkDataWriter<Object>) Registry.getWriter(outputFormat).apply(dst),
+            config).convert(progress);
+    }
+
+    private int estimateMemoryMB(Path source) throws IOException {
+        long bytes;
+        try (Stream<Path> files = Files.walk(source)) {
+            bytes = files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+        long estimate = MIN_JOB_MEMORY_MB + bytes / (1024 * 1024) * MEMORY_PER_SOURCE_MB;
+        return (int) Math.min(memoryBudgetMB, estimate);
+    }
+
+    private void fail(Path job, String reason) {
+        String name = job.getFileName().toString();
+        try {
+            Files.move(job, failed.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            Files.write(failed.resolve(name.substring(0, name.length() - JOB_EXTENSION.length()) + ".error"),
+                reason.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
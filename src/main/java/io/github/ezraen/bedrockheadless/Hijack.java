@@ -2,6 +2,7 @@ package io.github.ezraen.bedrockheadless;
 
 import cubicchunks.converter.lib.*;
 import cubicchunks.converter.lib.Registry;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.ChunkDataReader;
 import cubicchunks.converter.lib.convert.ChunkDataWriter;
@@ -15,29 +16,63 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Comparator;
 import com.flowpowered.nbt.*;
 
 public class Hijack {
 
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            ConversionDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         if (args.length < 2) {
-            System.out.println("Needs 2 arguments: <path to source world> <output path>");
+            System.out.println("Needs 2 arguments: <path to source world> <output path> [option=value...]");
+            System.out.println("Or run as a daemon: --daemon <spool directory> [option=value...]");
         }
         String src = args[0];
         String out = args[1];
-        File Height = new File(src + "//zero_offset.txt");
-        BufferedReader br = new BufferedReader(new FileReader(Height));
-        //int alt = false;
-        int alt = Integer.parseInt(br.readLine())/256;
-        br.close();
+        ConverterConfig config = WorldConverter.createDefaultConfig();
+        parseOptions(args, 2, config);
 
         Path tempDir = Paths.get(src).getParent().resolve("temp");
         File temp = tempDir.toFile();
         if (temp.mkdir()) {
             System.out.println("Creating /temp folder for 1st and 2nd conversion.");
         }
+        convert(Paths.get(src), Paths.get(out), tempDir, config, new IProgressListener() {
+            public void update(Void aVoid) {
+            }
 
+            public ErrorHandleResult error(Throwable throwable) {
+                return null;
+            }
+        });
+    }
+
+    static void parseOptions(String[] args, int start, ConverterConfig config) {
+        for (int i = start; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                System.out.println("Ignoring option " + args[i] + ", expected option=value");
+                continue;
+            }
+            config.set(option[0], option[1]);
+        }
+    }
+
+    /**
+     * Converts a cubic chunks world to Nukkit, through layered Anvil worlds in the temporary directory, which is deleted afterwards.
+     */
+    static void convert(Path srcPath, Path outPath, Path tempDir, ConverterConfig config, IProgressListener progress) throws IOException {
+        String src = srcPath.toString();
+        String out = outPath.toString();
+        File Height = new File(src + "//zero_offset.txt");
+        BufferedReader br = new BufferedReader(new FileReader(Height));
+        //int alt = false;
+        int alt = Integer.parseInt(br.readLine())/256;
+        br.close();
 
         WorldConverter<?, ?> converter = new WorldConverter<Object, Object>(
                 (LevelInfoConverter<Object, Object>)Registry.getLevelConverter("CubicChunks", "Anvil (layered)").apply(
@@ -46,15 +81,9 @@ public class Hijack {
                 ),
                 (ChunkDataReader<Object>)Registry.getReader("CubicChunks").apply(Paths.get(src)),
                 (ChunkDataConverter<Object, Object>)Registry.getConverter("CubicChunks", "Anvil (layered)").get(),
-                (ChunkDataWriter<Object>)Registry.getWriter("Anvil (layered)").apply(tempDir));
-        converter.convert(new IProgressListener() {
-            public void update(Void aVoid) {
-            }
-
-            public ErrorHandleResult error(Throwable throwable) {
-                return null;
-            }
-        });
+                (ChunkDataWriter<Object>)Registry.getWriter("Anvil (layered)").apply(tempDir),
+                config);
+        converter.convert(progress);
         System.out.println("Conversion 1 ended");
 
         String src2 = tempDir + "/layer [" + 256 * alt + ", " + (256 * alt + 256) + "]";
@@ -65,15 +94,9 @@ public class Hijack {
                 ),
                 (ChunkDataReader<Object>)Registry.getReader("Anvil").apply(Paths.get(src2)),
                 (ChunkDataConverter<Object, Object>)Registry.getConverter("Anvil", "Nukkit").get(),
-                (ChunkDataWriter<Object>)Registry.getWriter("Nukkit").apply(Paths.get(out)));
-        converter2.convert(new IProgressListener() {
-            public void update(Void aVoid) {
-            }
-
-            public ErrorHandleResult error(Throwable throwable) {
-                return null;
-            }
-        });
+                (ChunkDataWriter<Object>)Registry.getWriter("Nukkit").apply(Paths.get(out)),
+                config);
+        converter2.convert(progress);
         System.out.println("Conversion 2 ended");
         Files.walk(tempDir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
         Files.copy(Paths.get(src).resolve("zero_offset.txt"),Paths.get(out).resolve("zero_offset.txt"));